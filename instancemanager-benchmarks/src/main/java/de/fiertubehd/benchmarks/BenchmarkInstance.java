@@ -0,0 +1,35 @@
+package de.fiertubehd.benchmarks;
+
+public class BenchmarkInstance
+{
+
+    private final String name;
+    private final int value;
+
+    public BenchmarkInstance(String name, int value)
+    {
+        this.name = name;
+        this.value = value;
+    }
+
+    public BenchmarkInstance(String name)
+    {
+        this(name, 0);
+    }
+
+    public BenchmarkInstance()
+    {
+        this("default", 0);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getValue()
+    {
+        return value;
+    }
+
+}
@@ -0,0 +1,42 @@
+package de.fiertubehd.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public final class BenchmarkRunner
+{
+
+    private BenchmarkRunner()
+    {
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        String include = args.length > 0 ? args[0] : InstanceManagerBenchmark.class.getSimpleName();
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        int threads = 1;
+        while(true)
+        {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .result("jmh-result-" + threads + "-threads.json")
+                    .resultFormat(ResultFormatType.JSON)
+                    .build();
+
+            new Runner(options).run();
+
+            if(threads >= maxThreads)
+                break;
+
+            threads = Math.min(threads << 1, maxThreads);
+        }
+    }
+
+}
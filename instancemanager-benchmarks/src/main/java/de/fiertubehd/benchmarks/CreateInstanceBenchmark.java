@@ -0,0 +1,75 @@
+package de.fiertubehd.benchmarks;
+
+import de.fiertubehd.InstanceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CreateInstanceBenchmark
+{
+
+    private Object[] parameters;
+    private Constructor<BenchmarkInstance> constructor;
+
+    @Setup
+    public void setup() throws NoSuchMethodException
+    {
+        parameters = new Object[]{"benchmark", 42};
+
+        constructor = BenchmarkInstance.class.getDeclaredConstructor(String.class, int.class);
+        constructor.setAccessible(true);
+    }
+
+    @Benchmark
+    public BenchmarkInstance directNew()
+    {
+        return new BenchmarkInstance((String) parameters[0], (Integer) parameters[1]);
+    }
+
+    @Benchmark
+    public BenchmarkInstance reflectiveNewInstance() throws ReflectiveOperationException
+    {
+        return constructor.newInstance(parameters);
+    }
+
+    @Benchmark
+    public BenchmarkInstance createInstanceByClass()
+    {
+        return InstanceManager.createInstance(BenchmarkInstance.class, parameters);
+    }
+
+    @Benchmark
+    public GeneratedBenchmarkInstance createInstanceByGeneratedFactory()
+    {
+        return InstanceManager.createInstance(GeneratedBenchmarkInstance.class, parameters);
+    }
+
+    @Benchmark
+    public BenchmarkInstance createInstanceByConstructor()
+    {
+        return InstanceManager.createInstance(constructor, parameters);
+    }
+
+    @Benchmark
+    public Constructor<BenchmarkInstance> findMatchingConstructor()
+    {
+        return InstanceManager.findMatchingConstructor(BenchmarkInstance.class, parameters);
+    }
+
+}
@@ -0,0 +1,38 @@
+package de.fiertubehd.benchmarks;
+
+import de.fiertubehd.ManagedInstance;
+
+@ManagedInstance
+public class GeneratedBenchmarkInstance
+{
+
+    private final String name;
+    private final int value;
+
+    public GeneratedBenchmarkInstance(String name, int value)
+    {
+        this.name = name;
+        this.value = value;
+    }
+
+    public GeneratedBenchmarkInstance(String name)
+    {
+        this(name, 0);
+    }
+
+    public GeneratedBenchmarkInstance()
+    {
+        this("default", 0);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getValue()
+    {
+        return value;
+    }
+
+}
@@ -0,0 +1,202 @@
+package de.fiertubehd.benchmarks;
+
+import de.fiertubehd.InstanceManager;
+import de.fiertubehd.StorageMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InstanceManagerBenchmark
+{
+
+    private static final int SAMPLE_COUNT = 1 << 16;
+    private static final int CHURN_IDS = 64;
+    private static final BiFunction<String, Integer, BenchmarkInstance> FACTORY = BenchmarkInstance::new;
+
+    @Param({"NESTED", "FLAT", "SHARDED"})
+    public StorageMode storageMode;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"1024"})
+    public int keyCount;
+
+    @Param({"8"})
+    public int instancesPerKey;
+
+    private InstanceManager<String, BenchmarkInstance> instanceManager;
+    private String[] keys;
+    private Object[] parameters;
+    private int[] instanceIds;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        instanceManager = new InstanceManager<>(BenchmarkInstance.class, storageMode);
+        parameters = new Object[]{"benchmark", 42};
+        instanceIds = new int[instancesPerKey];
+        for(int instanceId = 0; instanceId < instancesPerKey; instanceId++)
+            instanceIds[instanceId] = instanceId;
+
+        keys = new String[keyCount];
+        for(int i = 0; i < keyCount; i++)
+        {
+            keys[i] = "key-" + i;
+
+            for(int instanceId = 0; instanceId < instancesPerKey; instanceId++)
+                instanceManager.getInstance(keys[i], instanceId, parameters);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+
+        private int[] keyIndexes;
+        private int[] instanceIds;
+        private int position;
+
+        private int missId;
+
+        @Setup(Level.Trial)
+        public void setup(InstanceManagerBenchmark benchmark, ThreadParams threadParams)
+        {
+            int threadIndex = threadParams.getThreadIndex();
+
+            missId = benchmark.instancesPerKey + CHURN_IDS + threadIndex;
+            keyIndexes = benchmark.distribution.sample(benchmark.keyCount, SAMPLE_COUNT, 31L * threadIndex + 7);
+            instanceIds = KeyDistribution.UNIFORM.sample(benchmark.instancesPerKey, SAMPLE_COUNT, 17L * threadIndex + 3);
+        }
+
+        private int next()
+        {
+            return position = (position + 1) & (SAMPLE_COUNT - 1);
+        }
+
+    }
+
+    @Benchmark
+    public BenchmarkInstance getInstanceHit(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.getInstance(keys[cursor.keyIndexes[index]], cursor.instanceIds[index], parameters);
+    }
+
+    @Benchmark
+    public BenchmarkInstance getInstanceHitWithFactory(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.getInstanceWith(keys[cursor.keyIndexes[index]], cursor.instanceIds[index], FACTORY, "benchmark", 42);
+    }
+
+    @Benchmark
+    public BenchmarkInstance getInstanceMissAfterUnregisterWithFactory(Cursor cursor)
+    {
+        String key = keys[cursor.keyIndexes[cursor.next()]];
+
+        instanceManager.unregisterInstance(key, cursor.missId);
+        return instanceManager.getInstanceWith(key, cursor.missId, FACTORY, "benchmark", 42);
+    }
+
+    @Benchmark
+    public BenchmarkInstance[] getInstancesHit(Cursor cursor)
+    {
+        return instanceManager.getInstances(keys[cursor.keyIndexes[cursor.next()]], instanceIds, parameters);
+    }
+
+    @Benchmark
+    public BenchmarkInstance getInstanceMissAfterUnregister(Cursor cursor)
+    {
+        String key = keys[cursor.keyIndexes[cursor.next()]];
+
+        instanceManager.unregisterInstance(key, cursor.missId);
+        return instanceManager.getInstance(key, cursor.missId, parameters);
+    }
+
+    @Benchmark
+    public BenchmarkInstance getExistingInstanceHit(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.getExistingInstance(keys[cursor.keyIndexes[index]], cursor.instanceIds[index]);
+    }
+
+    @Benchmark
+    public BenchmarkInstance getExistingInstanceMiss(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.getExistingInstance(keys[cursor.keyIndexes[index]], instancesPerKey + cursor.instanceIds[index]);
+    }
+
+    @Benchmark
+    public boolean existsInstanceHit(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.existsInstance(keys[cursor.keyIndexes[index]], cursor.instanceIds[index]);
+    }
+
+    @Benchmark
+    public boolean existsInstanceMiss(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.existsInstance(keys[cursor.keyIndexes[index]], instancesPerKey + cursor.instanceIds[index]);
+    }
+
+    @Benchmark
+    public void forEachInstance(Blackhole blackhole)
+    {
+        instanceManager.forEach((key, instanceId, instance) -> blackhole.consume(instance));
+    }
+
+    @Benchmark
+    public long streamInstances()
+    {
+        return instanceManager.stream().count();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public BenchmarkInstance churnGetInstance(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.getInstance(keys[cursor.keyIndexes[index]], churnId(index), parameters);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public boolean churnUnregisterInstance(Cursor cursor)
+    {
+        int index = cursor.next();
+        return instanceManager.unregisterInstance(keys[cursor.keyIndexes[index]], churnId(index));
+    }
+
+    private int churnId(int index)
+    {
+        return instancesPerKey + (index & (CHURN_IDS - 1));
+    }
+
+}
@@ -0,0 +1,55 @@
+package de.fiertubehd.benchmarks;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public enum KeyDistribution
+{
+
+    UNIFORM
+    {
+        @Override
+        public int[] sample(int keyCount, int sampleCount, long seed)
+        {
+            SplittableRandom random = new SplittableRandom(seed);
+
+            int[] samples = new int[sampleCount];
+            for(int i = 0; i < sampleCount; i++)
+                samples[i] = random.nextInt(keyCount);
+
+            return samples;
+        }
+    },
+
+    ZIPFIAN
+    {
+        @Override
+        public int[] sample(int keyCount, int sampleCount, long seed)
+        {
+            double[] cumulative = new double[keyCount];
+
+            double sum = 0;
+            for(int i = 0; i < keyCount; i++)
+            {
+                sum += 1.0 / Math.pow(i + 1, ZIPFIAN_EXPONENT);
+                cumulative[i] = sum;
+            }
+
+            SplittableRandom random = new SplittableRandom(seed);
+
+            int[] samples = new int[sampleCount];
+            for(int i = 0; i < sampleCount; i++)
+            {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                samples[i] = Math.min(index < 0 ? -index - 1 : index, keyCount - 1);
+            }
+
+            return samples;
+        }
+    };
+
+    private static final double ZIPFIAN_EXPONENT = 0.99;
+
+    public abstract int[] sample(int keyCount, int sampleCount, long seed);
+
+}
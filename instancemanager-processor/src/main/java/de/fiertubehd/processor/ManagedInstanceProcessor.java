@@ -0,0 +1,326 @@
+package de.fiertubehd.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+public final class ManagedInstanceProcessor extends AbstractProcessor
+{
+
+    private static final String ANNOTATION_NAME = "de.fiertubehd.ManagedInstance";
+    private static final String FACTORY_INTERFACE_NAME = "de.fiertubehd.InstanceFactory";
+    private static final String SERVICE_FILE = "META-INF/services/" + FACTORY_INTERFACE_NAME;
+    private static final String FACTORY_SUFFIX = "InstanceFactory";
+
+    private final Set<String> generatedFactories = new TreeSet<>();
+
+    private Filer filer;
+    private Messager messager;
+    private Types types;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv)
+    {
+        super.init(processingEnv);
+
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+        types = processingEnv.getTypeUtils();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes()
+    {
+        return Set.of(ANNOTATION_NAME);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        for(TypeElement annotation : annotations)
+        {
+            for(Element element : roundEnv.getElementsAnnotatedWith(annotation))
+            {
+                if(isManageable(element))
+                    generateFactory((TypeElement) element);
+            }
+        }
+
+        if(roundEnv.processingOver() && !generatedFactories.isEmpty())
+            writeServiceFile();
+
+        return true;
+    }
+
+    private boolean isManageable(Element element)
+    {
+        if(element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.RECORD)
+        {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@ManagedInstance can only be applied to classes and records.", element);
+            return false;
+        }
+
+        TypeElement type = (TypeElement) element;
+        if(type.getModifiers().contains(Modifier.ABSTRACT))
+        {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@ManagedInstance cannot be applied to abstract classes.", element);
+            return false;
+        }
+
+        for(Element current = type; current instanceof TypeElement currentType; current = current.getEnclosingElement())
+        {
+            NestingKind nestingKind = currentType.getNestingKind();
+            if(nestingKind != NestingKind.TOP_LEVEL && nestingKind != NestingKind.MEMBER)
+            {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@ManagedInstance cannot be applied to local or anonymous classes.", element);
+                return false;
+            }
+
+            if(nestingKind == NestingKind.MEMBER && !currentType.getModifiers().contains(Modifier.STATIC))
+            {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@ManagedInstance cannot be applied to inner classes.", element);
+                return false;
+            }
+
+            if(currentType.getModifiers().contains(Modifier.PRIVATE))
+            {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@ManagedInstance cannot be applied to private classes.", element);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void generateFactory(TypeElement type)
+    {
+        String packageName = packageOf(type).getQualifiedName().toString();
+        String factoryName = factoryNameOf(type);
+        String qualifiedFactoryName = packageName.isEmpty() ? factoryName : packageName + "." + factoryName;
+        String typeName = type.getQualifiedName().toString();
+
+        TreeMap<Integer, List<ExecutableElement>> constructorsByArity = new TreeMap<>();
+        for(ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements()))
+            constructorsByArity.computeIfAbsent(constructor.getParameters().size(), arity -> new ArrayList<>()).add(constructor);
+
+        try(PrintWriter out = new PrintWriter(filer.createSourceFile(qualifiedFactoryName, type).openWriter()))
+        {
+            if(!packageName.isEmpty())
+            {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+
+            out.println("@javax.annotation.processing.Generated(\"" + ManagedInstanceProcessor.class.getName() + "\")");
+            out.println("@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+            out.println("public final class " + factoryName + " implements " + FACTORY_INTERFACE_NAME + "<" + typeName + ">");
+            out.println("{");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Class<" + typeName + "> instanceClass()");
+            out.println("    {");
+            out.println("        return " + typeName + ".class;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public " + typeName + " newInstance(Object[] parameters) throws Throwable");
+            out.println("    {");
+            out.println("        switch(parameters.length)");
+            out.println("        {");
+
+            for(Map.Entry<Integer, List<ExecutableElement>> constructors : constructorsByArity.entrySet())
+            {
+                out.println("            case " + constructors.getKey() + ":");
+                for(ExecutableElement constructor : constructors.getValue())
+                    writeConstructor(out, typeName, constructor);
+
+                if(constructors.getKey() > 0)
+                    out.println("                break;");
+            }
+
+            out.println("        }");
+            out.println();
+            out.println("        return null;");
+            out.println("    }");
+            out.println();
+            out.println("}");
+
+        }catch(IOException e)
+        {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Could not generate " + qualifiedFactoryName + ": " + e.getMessage(), type);
+            return;
+        }
+
+        generatedFactories.add(qualifiedFactoryName);
+    }
+
+    private void writeConstructor(PrintWriter out, String typeName, ExecutableElement constructor)
+    {
+        List<? extends VariableElement> parameters = constructor.getParameters();
+
+        boolean accessible = !constructor.getModifiers().contains(Modifier.PRIVATE);
+
+        StringBuilder condition = new StringBuilder();
+        StringBuilder arguments = new StringBuilder();
+        for(int i = 0; i < parameters.size(); i++)
+        {
+            TypeMirror erasure = types.erasure(parameters.get(i).asType());
+            String parameterType = erasedNameOf(erasure);
+            accessible &= isAccessible(erasure);
+
+            if(i > 0)
+            {
+                condition.append(" && ");
+                arguments.append(", ");
+            }
+
+            condition.append("parameters[").append(i).append("] instanceof ").append(parameterType);
+            arguments.append("(").append(parameterType).append(") parameters[").append(i).append("]");
+        }
+
+        // Constructors the generated class cannot call are left to the reflective path so the first declared match still wins.
+        String statement = !accessible
+                ? "return null;"
+                : "return new " + typeName + "(" + arguments + ");";
+
+        if(parameters.isEmpty())
+        {
+            out.println("                " + statement);
+            return;
+        }
+
+        out.println("                if(" + condition + ")");
+        out.println("                    " + statement);
+    }
+
+    private String erasedNameOf(TypeMirror erasure)
+    {
+        if(erasure.getKind().isPrimitive())
+            return types.boxedClass((PrimitiveType) erasure).getQualifiedName().toString();
+
+        if(erasure.getKind() == TypeKind.ARRAY)
+            return arrayNameOf((ArrayType) erasure);
+
+        return ((TypeElement) types.asElement(erasure)).getQualifiedName().toString();
+    }
+
+    private String arrayNameOf(ArrayType type)
+    {
+        TypeMirror componentType = type.getComponentType();
+        if(componentType.getKind().isPrimitive())
+            return componentType.getKind().name().toLowerCase() + "[]";
+
+        if(componentType.getKind() == TypeKind.ARRAY)
+            return arrayNameOf((ArrayType) componentType) + "[]";
+
+        return ((TypeElement) types.asElement(componentType)).getQualifiedName() + "[]";
+    }
+
+    private boolean isAccessible(TypeMirror erasure)
+    {
+        while(erasure.getKind() == TypeKind.ARRAY)
+            erasure = ((ArrayType) erasure).getComponentType();
+
+        if(erasure.getKind().isPrimitive())
+            return true;
+
+        for(Element current = types.asElement(erasure); current instanceof TypeElement type; current = current.getEnclosingElement())
+        {
+            if(type.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void writeServiceFile()
+    {
+        Set<String> factories = new TreeSet<>(generatedFactories);
+        try
+        {
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8)))
+            {
+                String line;
+                while((line = reader.readLine()) != null)
+                {
+                    line = line.strip();
+                    if(!line.isEmpty() && !line.startsWith("#"))
+                        factories.add(line);
+                }
+            }
+
+        }catch(IOException ignored)
+        {
+            // No service file from an earlier compilation.
+        }
+
+        try(Writer writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE).openWriter())
+        {
+            for(String factory : factories)
+                writer.write(factory + "\n");
+
+        }catch(IOException e)
+        {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Could not write " + SERVICE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private static PackageElement packageOf(Element element)
+    {
+        while(!(element instanceof PackageElement packageElement))
+            element = element.getEnclosingElement();
+
+        return packageElement;
+    }
+
+    // GeneratedFactories derives the same name at runtime, so a lookup only instantiates the matching provider.
+    private static String factoryNameOf(TypeElement type)
+    {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        for(Element current = type.getEnclosingElement(); current instanceof TypeElement enclosing; current = current.getEnclosingElement())
+            name.insert(0, enclosing.getSimpleName() + "_");
+
+        return name.append(FACTORY_SUFFIX).toString();
+    }
+
+}
@@ -0,0 +1,175 @@
+package de.fiertubehd.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ManagedInstanceProcessorTest
+{
+
+    // The processor only refers to these by name, so stubs stand in for the library.
+    private static final Map<String, String> LIBRARY = Map.of(
+            "de/fiertubehd/ManagedInstance.java", """
+                    package de.fiertubehd;
+
+                    @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.CLASS)
+                    @java.lang.annotation.Target(java.lang.annotation.ElementType.TYPE)
+                    public @interface ManagedInstance
+                    {
+                    }
+                    """,
+            "de/fiertubehd/InstanceFactory.java", """
+                    package de.fiertubehd;
+
+                    public interface InstanceFactory<I>
+                    {
+                        Class<I> instanceClass();
+
+                        I newInstance(Object[] parameters) throws Throwable;
+                    }
+                    """);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void generatesAFactoryForANestedClass() throws Exception
+    {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile(Map.of("fixtures/Outer.java", """
+                package fixtures;
+
+                public final class Outer
+                {
+                    @de.fiertubehd.ManagedInstance
+                    public static final class Point
+                    {
+                        public final int x;
+                        public final String label;
+
+                        public Point()
+                        {
+                            this(0, "origin");
+                        }
+
+                        public Point(int x, String label)
+                        {
+                            this.x = x;
+                            this.label = label;
+                        }
+                    }
+                }
+                """));
+
+        assertTrue(errorsOf(diagnostics).isEmpty(), () -> errorsOf(diagnostics).toString());
+
+        Path classes = directory.resolve("classes");
+        assertEquals(List.of("fixtures.Outer_PointInstanceFactory"), Files.readAllLines(classes.resolve("META-INF/services/de.fiertubehd.InstanceFactory"), StandardCharsets.UTF_8));
+
+        try(URLClassLoader classLoader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, getClass().getClassLoader()))
+        {
+            Class<?> pointClass = classLoader.loadClass("fixtures.Outer$Point");
+            Object factory = classLoader.loadClass("fixtures.Outer_PointInstanceFactory").getConstructor().newInstance();
+
+            Method instanceClass = factory.getClass().getMethod("instanceClass");
+            Method newInstance = factory.getClass().getMethod("newInstance", Object[].class);
+
+            assertEquals(pointClass, instanceClass.invoke(factory));
+
+            Object origin = newInstance.invoke(factory, (Object) new Object[0]);
+            assertInstanceOf(pointClass, origin);
+            assertEquals("origin", pointClass.getField("label").get(origin));
+
+            Object point = newInstance.invoke(factory, (Object) new Object[] {3, "three"});
+            assertEquals(3, pointClass.getField("x").get(point));
+            assertEquals("three", pointClass.getField("label").get(point));
+
+            // Parameters no constructor accepts are left to the reflective path.
+            assertNull(newInstance.invoke(factory, (Object) new Object[] {"three", 3}));
+            assertNull(newInstance.invoke(factory, (Object) new Object[] {3}));
+        }
+    }
+
+    @Test
+    void rejectsAbstractAndInnerClasses() throws Exception
+    {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile(Map.of("fixtures/Invalid.java", """
+                package fixtures;
+
+                @de.fiertubehd.ManagedInstance
+                public abstract class Invalid
+                {
+                    @de.fiertubehd.ManagedInstance
+                    public final class Inner
+                    {
+                    }
+                }
+                """));
+
+        List<String> errors = errorsOf(diagnostics);
+        assertEquals(List.of("@ManagedInstance cannot be applied to abstract classes.", "@ManagedInstance cannot be applied to inner classes."), errors);
+        assertFalse(Files.exists(directory.resolve("classes/META-INF/services/de.fiertubehd.InstanceFactory")));
+    }
+
+    private DiagnosticCollector<JavaFileObject> compile(Map<String, String> fixtures) throws IOException
+    {
+        Path sources = directory.resolve("sources");
+        Path classes = Files.createDirectories(directory.resolve("classes"));
+
+        List<Path> files = new ArrayList<>();
+        for(Map<String, String> group : List.of(LIBRARY, fixtures))
+        {
+            for(Map.Entry<String, String> source : group.entrySet())
+            {
+                Path file = sources.resolve(source.getKey());
+                Files.createDirectories(file.getParent());
+                files.add(Files.writeString(file, source.getValue()));
+            }
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try(StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8))
+        {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    List.of("-d", classes.toString()),
+                    null, fileManager.getJavaFileObjectsFromPaths(files));
+
+            task.setProcessors(List.of(new ManagedInstanceProcessor()));
+            task.call();
+        }
+
+        return diagnostics;
+    }
+
+    private static List<String> errorsOf(DiagnosticCollector<JavaFileObject> diagnostics)
+    {
+        return diagnostics.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .map(diagnostic -> diagnostic.getMessage(null))
+                .toList();
+    }
+
+}
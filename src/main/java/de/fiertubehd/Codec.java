@@ -0,0 +1,15 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+public interface Codec<T>
+{
+
+    void encode(@NotNull T value, @NotNull ByteBuffer target);
+
+    @NotNull
+    T decode(@NotNull ByteBuffer source);
+
+}
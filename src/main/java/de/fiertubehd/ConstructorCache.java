@@ -0,0 +1,314 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+final class ConstructorCache
+{
+
+    private static final int MAX_CACHED_SIGNATURES = 64;
+
+    private static final ClassValue<ConstructorCache> constructorCaches = new ClassValue<>()
+    {
+        @Override
+        protected ConstructorCache computeValue(Class<?> type)
+        {
+            return new ConstructorCache(type);
+        }
+    };
+
+    private final Class<?> instanceClazz;
+    private final Constructor<?>[] declaredConstructors;
+    private final Class<?>[][] declaredParameterTypes;
+    private final ConstructorFactory[] constructorFactories;
+
+    private volatile ResolvedConstructor[] resolvedConstructors;
+    private volatile UnresolvedSignature[] unresolvedSignatures;
+
+    private ConstructorCache(@NotNull Class<?> instanceClazz)
+    {
+        this.instanceClazz = instanceClazz;
+
+        declaredConstructors = instanceClazz.getDeclaredConstructors();
+        declaredParameterTypes = new Class<?>[declaredConstructors.length][];
+        constructorFactories = new ConstructorFactory[declaredConstructors.length];
+
+        for(int i = 0; i < declaredConstructors.length; i++)
+        {
+            Class<?>[] parameterTypes = declaredConstructors[i].getParameterTypes();
+            for(int j = 0; j < parameterTypes.length; j++)
+                parameterTypes[j] = InstanceManager.primitiveToWrapper(parameterTypes[j]);
+
+            declaredParameterTypes[i] = parameterTypes;
+        }
+
+        resolvedConstructors = new ResolvedConstructor[0];
+        unresolvedSignatures = new UnresolvedSignature[0];
+    }
+
+    @NotNull
+    static ConstructorCache of(@NotNull Class<?> instanceClazz)
+    {
+        return constructorCaches.get(instanceClazz);
+    }
+
+    @Nullable
+    ConstructorFactory resolve(@NotNull Object[] parameters)
+    {
+        for(ResolvedConstructor resolvedConstructor : resolvedConstructors)
+        {
+            if(resolvedConstructor.matches(parameters))
+                return resolvedConstructor.factory;
+        }
+
+        for(UnresolvedSignature unresolvedSignature : unresolvedSignatures)
+        {
+            if(unresolvedSignature.matches(parameters))
+                return null;
+        }
+
+        ConstructorResolutionEvent event = new ConstructorResolutionEvent();
+        event.begin();
+
+        int index = scan(parameters);
+        ConstructorFactory factory = index < 0 ? null : factoryAt(index);
+
+        if(event.shouldCommit())
+        {
+            event.instanceClass = instanceClazz;
+            event.parameterCount = parameters.length;
+            event.constructorsScanned = index < 0 ? declaredConstructors.length : index + 1;
+            event.resolved = index >= 0;
+            event.commit();
+        }
+
+        if(factory == null)
+        {
+            cacheUnresolved(parameters);
+            return null;
+        }
+
+        synchronized(this)
+        {
+            ResolvedConstructor[] current = resolvedConstructors;
+            for(ResolvedConstructor resolvedConstructor : current)
+            {
+                if(resolvedConstructor.matches(parameters))
+                    return resolvedConstructor.factory;
+            }
+
+            if(current.length < MAX_CACHED_SIGNATURES)
+            {
+                ResolvedConstructor[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = new ResolvedConstructor(signatureOf(parameters), factory);
+
+                resolvedConstructors = updated;
+            }
+        }
+
+        return factory;
+    }
+
+    @NotNull
+    IllegalArgumentException unresolved(@NotNull Object[] parameters)
+    {
+        for(UnresolvedSignature unresolvedSignature : unresolvedSignatures)
+        {
+            if(!unresolvedSignature.matches(parameters))
+                continue;
+
+            // The first failure of a signature keeps its stack trace, only cached repeats are stackless.
+            if(unresolvedSignature.reported)
+                return new UnresolvedConstructorException(unresolvedSignature.message);
+
+            unresolvedSignature.reported = true;
+            return new IllegalArgumentException(unresolvedSignature.message);
+        }
+
+        return new IllegalArgumentException(describeUnresolved(instanceClazz, signatureOf(parameters)));
+    }
+
+    // Public entry points hand their caller a failure that carries its own stack trace.
+    @NotNull
+    static IllegalArgumentException withStackTrace(@NotNull IllegalArgumentException failure)
+    {
+        if(failure instanceof UnresolvedConstructorException)
+            return new IllegalArgumentException(failure.getMessage());
+
+        return failure;
+    }
+
+    @Nullable
+    ConstructorFactory factoryOf(@NotNull Constructor<?> constructor)
+    {
+        for(int i = 0; i < declaredConstructors.length; i++)
+        {
+            if(declaredConstructors[i].equals(constructor))
+                return factoryAt(i);
+        }
+
+        return null;
+    }
+
+    @NotNull
+    private ConstructorFactory factoryAt(int index)
+    {
+        ConstructorFactory factory = constructorFactories[index];
+        if(factory == null)
+        {
+            factory = ConstructorFactory.of(declaredConstructors[index]);
+            constructorFactories[index] = factory;
+        }
+
+        return factory;
+    }
+
+    private void cacheUnresolved(@NotNull Object[] parameters)
+    {
+        synchronized(this)
+        {
+            UnresolvedSignature[] current = unresolvedSignatures;
+            if(current.length >= MAX_CACHED_SIGNATURES)
+                return;
+
+            for(UnresolvedSignature unresolvedSignature : current)
+            {
+                if(unresolvedSignature.matches(parameters))
+                    return;
+            }
+
+            Class<?>[] signature = signatureOf(parameters);
+
+            UnresolvedSignature[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = new UnresolvedSignature(signature, describeUnresolved(instanceClazz, signature));
+
+            unresolvedSignatures = updated;
+        }
+    }
+
+    private int scan(@NotNull Object[] parameters)
+    {
+        for(int i = 0; i < declaredConstructors.length; i++)
+        {
+            Class<?>[] parameterTypes = declaredParameterTypes[i];
+            if(parameterTypes.length != parameters.length)
+                continue;
+
+            boolean match = true;
+            for(int j = 0; j < parameterTypes.length; j++)
+            {
+                if(!parameterTypes[j].isInstance(parameters[j]))
+                {
+                    match = false;
+                    break;
+                }
+            }
+
+            if(match)
+                return i;
+        }
+
+        return -1;
+    }
+
+    @NotNull
+    private static Class<?>[] signatureOf(@NotNull Object[] parameters)
+    {
+        Class<?>[] signature = new Class<?>[parameters.length];
+        for(int i = 0; i < parameters.length; i++)
+            signature[i] = parameters[i] == null ? null : parameters[i].getClass();
+
+        return signature;
+    }
+
+    private static boolean matches(@NotNull Class<?>[] signature, @NotNull Object[] parameters)
+    {
+        if(signature.length != parameters.length)
+            return false;
+
+        for(int i = 0; i < signature.length; i++)
+        {
+            Object parameter = parameters[i];
+            if((parameter == null ? null : parameter.getClass()) != signature[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    @NotNull
+    private static String describeUnresolved(@NotNull Class<?> instanceClazz, @NotNull Class<?>[] signature)
+    {
+        return "No suitable constructor could be found in the class "
+                + instanceClazz.getName()
+                + " with the specified arguments"
+                + Arrays.stream(signature)
+                .map(c -> c == null ? "null" : c.getName())
+                .collect(Collectors.joining(",", "(", ")"));
+    }
+
+    private static final class ResolvedConstructor
+    {
+
+        private final Class<?>[] signature;
+        private final ConstructorFactory factory;
+
+        private ResolvedConstructor(@NotNull Class<?>[] signature, @NotNull ConstructorFactory factory)
+        {
+            this.signature = signature;
+            this.factory = factory;
+        }
+
+        private boolean matches(@NotNull Object[] parameters)
+        {
+            return ConstructorCache.matches(signature, parameters);
+        }
+
+    }
+
+    private static final class UnresolvedConstructorException extends IllegalArgumentException
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private UnresolvedConstructorException(@NotNull String message)
+        {
+            super(message);
+        }
+
+        // Repeated failures of a cached signature skip the stack walk.
+        @Override
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+
+    }
+
+    private static final class UnresolvedSignature
+    {
+
+        private final Class<?>[] signature;
+        private final String message;
+
+        // Racy on purpose, a second full stack trace is harmless.
+        private volatile boolean reported;
+
+        private UnresolvedSignature(@NotNull Class<?>[] signature, @NotNull String message)
+        {
+            this.signature = signature;
+            this.message = message;
+        }
+
+        private boolean matches(@NotNull Object[] parameters)
+        {
+            return ConstructorCache.matches(signature, parameters);
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+final class ConstructorFactory
+{
+
+    private final Constructor<?> constructor;
+    private final Class<?>[] parameterTypes;
+
+    private final Supplier<?> supplier;
+    private final Function<Object, ?> function;
+    private final BiFunction<Object, Object, ?> biFunction;
+    private final MethodHandle spreader;
+
+    private ConstructorFactory(@NotNull Constructor<?> constructor, @Nullable Object generated, @Nullable MethodHandle spreader)
+    {
+        this.constructor = constructor;
+        this.parameterTypes = constructor.getParameterTypes();
+
+        this.supplier = generated instanceof Supplier<?> s ? s : null;
+        this.function = generated instanceof Function<?, ?> f ? (Function<Object, ?>) f : null;
+        this.biFunction = generated instanceof BiFunction<?, ?, ?> f ? (BiFunction<Object, Object, ?>) f : null;
+        this.spreader = spreader;
+    }
+
+    @NotNull
+    static ConstructorFactory of(@NotNull Constructor<?> constructor)
+    {
+        constructor.setAccessible(true);
+
+        Object generated = null;
+        MethodHandle spreader = null;
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(constructor.getDeclaringClass(), MethodHandles.lookup());
+            MethodHandle handle = lookup.unreflectConstructor(constructor).asFixedArity();
+
+            generated = generate(lookup, handle);
+            if(generated == null)
+                spreader = handle.asType(handle.type().generic()).asSpreader(Object[].class, handle.type().parameterCount());
+
+        }catch(Throwable ignored)
+        {
+            // Constructors that cannot be looked up or unreflected keep using Constructor.newInstance.
+        }
+
+        return new ConstructorFactory(constructor, generated, spreader);
+    }
+
+    @Nullable
+    private static Object generate(@NotNull MethodHandles.Lookup lookup, @NotNull MethodHandle handle) throws Throwable
+    {
+        int arity = handle.type().parameterCount();
+
+        Class<?> factoryType;
+        String factoryMethod;
+        switch(arity)
+        {
+            case 0 ->
+            {
+                factoryType = Supplier.class;
+                factoryMethod = "get";
+            }
+            case 1 ->
+            {
+                factoryType = Function.class;
+                factoryMethod = "apply";
+            }
+            case 2 ->
+            {
+                factoryType = BiFunction.class;
+                factoryMethod = "apply";
+            }
+            default ->
+            {
+                return null;
+            }
+        }
+
+        return LambdaMetafactory.metafactory(
+                lookup,
+                factoryMethod,
+                MethodType.methodType(factoryType),
+                MethodType.genericMethodType(arity),
+                handle,
+                handle.type().wrap()
+        ).getTarget().invoke();
+    }
+
+    @NotNull
+    Constructor<?> constructor()
+    {
+        return constructor;
+    }
+
+    boolean accepts(@NotNull Object[] parameters)
+    {
+        if(parameterTypes.length != parameters.length)
+            return false;
+
+        for(int i = 0; i < parameterTypes.length; i++)
+        {
+            Object parameter = parameters[i];
+            if(parameter == null ? parameterTypes[i].isPrimitive() : !InstanceManager.primitiveToWrapper(parameterTypes[i]).isInstance(parameter))
+                return false;
+        }
+
+        return true;
+    }
+
+    @NotNull
+    Object newInstance(@NotNull Object[] parameters) throws ReflectiveOperationException
+    {
+        try
+        {
+            if(supplier != null)
+                return supplier.get();
+
+            if(function != null)
+                return function.apply(parameters[0]);
+
+            if(biFunction != null)
+                return biFunction.apply(parameters[0], parameters[1]);
+
+            if(spreader != null)
+                return (Object) spreader.invokeExact(parameters);
+
+        }catch(Throwable t)
+        {
+            throw new InvocationTargetException(t);
+        }
+
+        return constructor.newInstance(parameters);
+    }
+
+}
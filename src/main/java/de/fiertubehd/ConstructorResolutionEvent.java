@@ -0,0 +1,32 @@
+package de.fiertubehd;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("de.fiertubehd.ConstructorResolution")
+@Label("Constructor Resolution")
+@Description("Uncached lookup of a constructor matching the given parameters")
+@Category("InstanceManager")
+@Enabled(false)
+@StackTrace(false)
+final class ConstructorResolutionEvent extends Event
+{
+
+    @Label("Instance Class")
+    Class<?> instanceClass;
+
+    @Label("Parameter Count")
+    int parameterCount;
+
+    @Label("Constructors Scanned")
+    int constructorsScanned;
+
+    @Label("Resolved")
+    boolean resolved;
+
+}
@@ -0,0 +1,91 @@
+package de.fiertubehd;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+final class CountingBloomFilter
+{
+
+    private static final int MAXIMUM_CAPACITY = 1 << 28;
+    private static final int HASH_COUNT = 4;
+    private static final long COUNTER_MASK = 0xFL;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+
+    CountingBloomFilter(long expectedSize)
+    {
+        int capacity = (int) Math.min(Math.max(expectedSize, 16), MAXIMUM_CAPACITY);
+
+        table = new AtomicLongArray(Integer.highestOneBit(capacity - 1) << 1);
+        tableMask = table.length() - 1;
+    }
+
+    boolean mightContain(long hash)
+    {
+        long word = table.get((int) hash & tableMask);
+        for(int i = 0; i < HASH_COUNT; i++)
+        {
+            if(((word >>> offset(hash, i)) & COUNTER_MASK) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    void add(long hash)
+    {
+        int index = (int) hash & tableMask;
+        while(true)
+        {
+            long word = table.get(index);
+
+            long updated = word;
+            for(int i = 0; i < HASH_COUNT; i++)
+            {
+                int offset = offset(hash, i);
+                if(((updated >>> offset) & COUNTER_MASK) != COUNTER_MASK)
+                    updated += 1L << offset;
+            }
+
+            if(updated == word || table.compareAndSet(index, word, updated))
+                return;
+        }
+    }
+
+    void remove(long hash)
+    {
+        int index = (int) hash & tableMask;
+        while(true)
+        {
+            long word = table.get(index);
+
+            long updated = word;
+            for(int i = 0; i < HASH_COUNT; i++)
+            {
+                int offset = offset(hash, i);
+                long counter = (updated >>> offset) & COUNTER_MASK;
+
+                // Saturated counters stay saturated so that no other member can turn into a false negative.
+                if(counter != COUNTER_MASK && counter != 0)
+                    updated -= 1L << offset;
+            }
+
+            if(updated == word || table.compareAndSet(index, word, updated))
+                return;
+        }
+    }
+
+    static long hash(int keyHash, int instanceId)
+    {
+        long hash = keyHash * 0x9E3779B97F4A7C15L ^ instanceId * 0xC2B2AE3D27D4EB4FL;
+        hash = (hash ^ (hash >>> 31)) * 0x94D049BB133111EBL;
+
+        return hash ^ (hash >>> 29);
+    }
+
+    private static int offset(long hash, int i)
+    {
+        return ((int) (hash >>> (32 + (i << 2))) & 0xF) << 2;
+    }
+
+}
@@ -0,0 +1,15 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+public final class CreationBackoffException extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    CreationBackoffException(@NotNull Throwable cause)
+    {
+        super("Instance creation is backing off after a failure.", cause, false, false);
+    }
+
+}
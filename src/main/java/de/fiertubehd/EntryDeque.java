@@ -0,0 +1,137 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+final class EntryDeque<K, V>
+{
+
+    static final int ACCESS_ORDER = 0;
+    static final int KEY_ORDER = 1;
+    static final int TIMER_ORDER = 2;
+
+    private final int order;
+
+    private InstanceEntry<K, V> first;
+    private InstanceEntry<K, V> last;
+    private int size;
+
+    EntryDeque(int order)
+    {
+        this.order = order;
+    }
+
+    @Nullable
+    InstanceEntry<K, V> peekFirst()
+    {
+        return first;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    void addLast(@NotNull InstanceEntry<K, V> entry)
+    {
+        setPrevious(entry, last);
+        setNext(entry, null);
+
+        if(last == null)
+            first = entry;
+        else
+            setNext(last, entry);
+
+        last = entry;
+        size++;
+    }
+
+    void remove(@NotNull InstanceEntry<K, V> entry)
+    {
+        InstanceEntry<K, V> previous = previous(entry);
+        InstanceEntry<K, V> next = next(entry);
+
+        if(previous == null)
+            first = next;
+        else
+            setNext(previous, next);
+
+        if(next == null)
+            last = previous;
+        else
+            setPrevious(next, previous);
+
+        setPrevious(entry, null);
+        setNext(entry, null);
+        size--;
+    }
+
+    @Nullable
+    InstanceEntry<K, V> detach()
+    {
+        InstanceEntry<K, V> detached = first;
+
+        first = null;
+        last = null;
+        size = 0;
+
+        return detached;
+    }
+
+    void moveToLast(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(entry == last)
+            return;
+
+        remove(entry);
+        addLast(entry);
+    }
+
+    @Nullable
+    InstanceEntry<K, V> next(@NotNull InstanceEntry<K, V> entry)
+    {
+        return switch(order)
+        {
+            case KEY_ORDER -> entry.nextInKey;
+            case TIMER_ORDER -> entry.nextInTimer;
+            default -> entry.next;
+        };
+    }
+
+    @Nullable
+    private InstanceEntry<K, V> previous(@NotNull InstanceEntry<K, V> entry)
+    {
+        return switch(order)
+        {
+            case KEY_ORDER -> entry.previousInKey;
+            case TIMER_ORDER -> entry.previousInTimer;
+            default -> entry.previous;
+        };
+    }
+
+    private void setPrevious(@NotNull InstanceEntry<K, V> entry, @Nullable InstanceEntry<K, V> previous)
+    {
+        switch(order)
+        {
+            case KEY_ORDER -> entry.previousInKey = previous;
+            case TIMER_ORDER -> entry.previousInTimer = previous;
+            default -> entry.previous = previous;
+        }
+    }
+
+    private void setNext(@NotNull InstanceEntry<K, V> entry, @Nullable InstanceEntry<K, V> next)
+    {
+        switch(order)
+        {
+            case KEY_ORDER -> entry.nextInKey = next;
+            case TIMER_ORDER -> entry.nextInTimer = next;
+            default -> entry.next = next;
+        }
+    }
+
+}
@@ -0,0 +1,436 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+final class EntryPolicy<K, V>
+{
+
+    private static final long EXPIRATION_TOLERANCE = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final InstanceStore<K, Object> instances;
+    private final RemovalListener<K, V> removalListener;
+
+    private final long maximumSize;
+    private final int maximumSizePerKey;
+    private final boolean evicts;
+    private final boolean evictsPerKey;
+    private final boolean admission;
+
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final long origin;
+
+    private final ValueStrength valueStrength;
+    private final ReferenceQueue<V> referenceQueue;
+
+    private final ReentrantLock evictionLock;
+    private final ReadBuffer<InstanceEntry<K, V>> readBuffer;
+    private final ConcurrentLinkedQueue<InstanceEntry<K, V>> addedEntries;
+    private final ConcurrentLinkedQueue<InstanceEntry<K, V>> removedEntries;
+    private final Consumer<InstanceEntry<K, V>> accessConsumer;
+    private final Consumer<InstanceEntry<K, V>> timerConsumer;
+
+    private final EntryDeque<K, V> window;
+    private final EntryDeque<K, V> probation;
+    private final EntryDeque<K, V> protectedEntries;
+    private final HashMap<K, EntryDeque<K, V>> keyOrders;
+    private final FrequencySketch sketch;
+    private final TimerWheel<K, V> timerWheel;
+
+    private long size;
+
+    EntryPolicy(@NotNull InstanceStore<K, Object> instances, @NotNull InstanceManagerBuilder<?, ?> builder, @Nullable RemovalListener<K, V> removalListener)
+    {
+        this.instances = instances;
+        this.removalListener = removalListener;
+
+        maximumSize = builder.maximumSize;
+        maximumSizePerKey = builder.maximumSizePerKey;
+        evicts = maximumSize != Long.MAX_VALUE;
+        evictsPerKey = maximumSizePerKey != Integer.MAX_VALUE;
+        admission = evicts && builder.evictionPolicy == EvictionPolicy.TINY_LFU;
+
+        windowMaximum = admission ? Math.min(maximumSize, Math.max(1, maximumSize / 100)) : 0;
+        protectedMaximum = (maximumSize - windowMaximum) * 4 / 5;
+
+        expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        origin = System.nanoTime();
+
+        valueStrength = builder.valueStrength;
+        referenceQueue = valueStrength == ValueStrength.STRONG ? null : new ReferenceQueue<>();
+
+        evictionLock = new ReentrantLock();
+        readBuffer = new ReadBuffer<>();
+        addedEntries = new ConcurrentLinkedQueue<>();
+        removedEntries = new ConcurrentLinkedQueue<>();
+        accessConsumer = this::onAccess;
+        timerConsumer = this::onTimer;
+
+        window = new EntryDeque<>(EntryDeque.ACCESS_ORDER);
+        probation = new EntryDeque<>(EntryDeque.ACCESS_ORDER);
+        protectedEntries = new EntryDeque<>(EntryDeque.ACCESS_ORDER);
+        keyOrders = new HashMap<>();
+        sketch = admission ? new FrequencySketch(maximumSize) : null;
+        timerWheel = expires() ? new TimerWheel<>(ticker()) : null;
+    }
+
+    @NotNull
+    InstanceEntry<K, V> newEntry(@NotNull K key, int instanceId, @NotNull V value)
+    {
+        InstanceEntry<K, V> entry = new InstanceEntry<>(key, instanceId, value, valueStrength, referenceQueue);
+        if(timerWheel != null)
+        {
+            long now = ticker();
+
+            entry.writeTime = now;
+            entry.expiresAt = expirationTime(now, now);
+        }
+
+        return entry;
+    }
+
+    @Nullable
+    V read(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(timerWheel != null)
+        {
+            long now = ticker();
+            if(entry.expiresAt <= now)
+                return null;
+
+            if(expireAfterAccessNanos >= 0)
+            {
+                long expiresAt = expirationTime(entry.writeTime, now);
+                if(expiresAt - entry.expiresAt > EXPIRATION_TOLERANCE)
+                    entry.expiresAt = expiresAt;
+            }
+        }
+
+        V value = entry.value();
+        if(value == null)
+            return null;
+
+        if((evicts || evictsPerKey) && readBuffer.offer(entry) == ReadBuffer.FULL)
+            scheduleDrain();
+
+        return value;
+    }
+
+    boolean isPresent(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(timerWheel != null && entry.expiresAt <= ticker())
+            return false;
+
+        return referenceQueue == null || entry.value() != null;
+    }
+
+    @Nullable
+    V afterCreate(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(!entry.announce())
+            return read(entry);
+
+        V value = entry.unpin();
+
+        addedEntries.offer(entry);
+        scheduleDrain();
+
+        return value;
+    }
+
+    void afterRemove(@NotNull InstanceEntry<K, V> entry)
+    {
+        entry.retire();
+
+        removedEntries.offer(entry);
+        scheduleDrain();
+    }
+
+    void expire(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(!instances.remove(entry.key, entry.instanceId, entry))
+            return;
+
+        afterRemove(entry);
+        notifyRemoval(entry, entry.value() == null ? RemovalCause.COLLECTED : RemovalCause.EXPIRED);
+    }
+
+    void cleanUp()
+    {
+        evictionLock.lock();
+        try
+        {
+            maintenance();
+
+        }finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean expires()
+    {
+        return expireAfterWriteNanos >= 0 || expireAfterAccessNanos >= 0;
+    }
+
+    private long ticker()
+    {
+        return System.nanoTime() - origin;
+    }
+
+    private long expirationTime(long writeTime, long accessTime)
+    {
+        long expiresAt = Long.MAX_VALUE;
+        if(expireAfterWriteNanos >= 0)
+            expiresAt = writeTime + expireAfterWriteNanos;
+        if(expireAfterAccessNanos >= 0)
+            expiresAt = Math.min(expiresAt, accessTime + expireAfterAccessNanos);
+
+        return expiresAt;
+    }
+
+    private void scheduleDrain()
+    {
+        do
+        {
+            if(!evictionLock.tryLock())
+                return;
+
+            try
+            {
+                maintenance();
+
+            }finally
+            {
+                evictionLock.unlock();
+            }
+        }while(!addedEntries.isEmpty() || !removedEntries.isEmpty());
+    }
+
+    private void maintenance()
+    {
+        readBuffer.drainTo(accessConsumer);
+
+        InstanceEntry<K, V> entry;
+        while((entry = addedEntries.poll()) != null)
+            onAdd(entry);
+
+        while((entry = removedEntries.poll()) != null)
+        {
+            unlink(entry);
+            entry.die();
+        }
+
+        if(referenceQueue != null)
+            drainReferences();
+
+        if(timerWheel != null)
+            timerWheel.advance(ticker(), timerConsumer);
+
+        if(admission)
+            evictWithAdmission();
+        else if(evicts)
+            evictLeastRecentlyUsed();
+    }
+
+    private void drainReferences()
+    {
+        Reference<? extends V> reference;
+        while((reference = referenceQueue.poll()) != null)
+            evict((InstanceEntry<K, V>) ((InstanceEntry.ValueReference) reference).entry(), RemovalCause.COLLECTED);
+    }
+
+    private void onAccess(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(!entry.tracked || !entry.isAlive())
+            return;
+
+        if(sketch != null)
+            sketch.increment(entry.hash());
+
+        switch(entry.queue)
+        {
+            case InstanceEntry.WINDOW -> window.moveToLast(entry);
+            case InstanceEntry.PROTECTED -> protectedEntries.moveToLast(entry);
+            case InstanceEntry.PROBATION ->
+            {
+                if(!admission)
+                {
+                    probation.moveToLast(entry);
+                    break;
+                }
+
+                probation.remove(entry);
+                entry.queue = InstanceEntry.PROTECTED;
+                protectedEntries.addLast(entry);
+
+                if(protectedEntries.size() > protectedMaximum)
+                {
+                    InstanceEntry<K, V> demoted = protectedEntries.peekFirst();
+                    protectedEntries.remove(demoted);
+                    demoted.queue = InstanceEntry.PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+        }
+
+        if(evictsPerKey)
+            keyOrders.get(entry.key).moveToLast(entry);
+    }
+
+    private void onAdd(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(!entry.isAlive())
+            return;
+
+        entry.tracked = true;
+        size++;
+
+        if(sketch != null)
+            sketch.increment(entry.hash());
+
+        if(admission)
+        {
+            entry.queue = InstanceEntry.WINDOW;
+            window.addLast(entry);
+        }else if(evicts)
+        {
+            entry.queue = InstanceEntry.PROBATION;
+            probation.addLast(entry);
+        }
+
+        if(timerWheel != null)
+            timerWheel.schedule(entry);
+
+        if(!evictsPerKey)
+            return;
+
+        EntryDeque<K, V> keyOrder = keyOrders.computeIfAbsent(entry.key, k -> new EntryDeque<>(EntryDeque.KEY_ORDER));
+        keyOrder.addLast(entry);
+
+        while(keyOrder.size() > maximumSizePerKey)
+            evict(keyOrder.peekFirst(), RemovalCause.SIZE);
+    }
+
+    private void onTimer(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(entry.expiresAt > ticker())
+            timerWheel.schedule(entry);
+        else
+            evict(entry, RemovalCause.EXPIRED);
+    }
+
+    private void evictLeastRecentlyUsed()
+    {
+        while(size > maximumSize)
+            evict(probation.peekFirst(), RemovalCause.SIZE);
+    }
+
+    private void evictWithAdmission()
+    {
+        while(window.size() > windowMaximum)
+        {
+            InstanceEntry<K, V> candidate = window.peekFirst();
+            window.remove(candidate);
+            candidate.queue = InstanceEntry.PROBATION;
+            probation.addLast(candidate);
+
+            if(size <= maximumSize)
+                continue;
+
+            InstanceEntry<K, V> victim = probation.peekFirst();
+            if(victim == candidate)
+                victim = protectedEntries.peekFirst();
+
+            if(victim == null || sketch.frequency(candidate.hash()) <= sketch.frequency(victim.hash()))
+                evict(candidate, RemovalCause.SIZE);
+            else
+                evict(victim, RemovalCause.SIZE);
+        }
+
+        while(size > maximumSize)
+        {
+            InstanceEntry<K, V> victim = probation.peekFirst();
+            if(victim == null)
+                victim = protectedEntries.peekFirst();
+            if(victim == null)
+                victim = window.peekFirst();
+
+            evict(victim, RemovalCause.SIZE);
+        }
+    }
+
+    private void evict(@NotNull InstanceEntry<K, V> entry, @NotNull RemovalCause cause)
+    {
+        unlink(entry);
+
+        if(instances.remove(entry.key, entry.instanceId, entry))
+        {
+            entry.retire();
+            notifyRemoval(entry, cause);
+        }
+
+        entry.die();
+    }
+
+    private void notifyRemoval(@NotNull InstanceEntry<K, V> entry, @NotNull RemovalCause cause)
+    {
+        if(removalListener == null)
+            return;
+
+        try
+        {
+            removalListener.onRemoval(entry.key, entry.instanceId, entry.value(), cause);
+
+        }catch(Exception e)
+        {
+            // Maintenance runs under the eviction lock on behalf of unrelated callers, so a failing listener is only reported.
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private void unlink(@NotNull InstanceEntry<K, V> entry)
+    {
+        if(!entry.tracked)
+            return;
+
+        entry.tracked = false;
+        size--;
+
+        switch(entry.queue)
+        {
+            case InstanceEntry.WINDOW -> window.remove(entry);
+            case InstanceEntry.PROBATION -> probation.remove(entry);
+            case InstanceEntry.PROTECTED -> protectedEntries.remove(entry);
+        }
+
+        entry.queue = InstanceEntry.UNLINKED;
+
+        if(timerWheel != null)
+            timerWheel.deschedule(entry);
+
+        if(!evictsPerKey)
+            return;
+
+        EntryDeque<K, V> keyOrder = keyOrders.get(entry.key);
+        keyOrder.remove(entry);
+
+        if(keyOrder.isEmpty())
+            keyOrders.remove(entry.key);
+    }
+
+}
@@ -0,0 +1,9 @@
+package de.fiertubehd;
+
+public enum EvictionPolicy
+{
+
+    TINY_LFU,
+    LRU
+
+}
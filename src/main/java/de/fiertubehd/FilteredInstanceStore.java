@@ -0,0 +1,139 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.IntFunction;
+
+final class FilteredInstanceStore<K, V> implements InstanceStore<K, V>
+{
+
+    private final InstanceStore<K, V> delegate;
+    private final CountingBloomFilter filter;
+
+    FilteredInstanceStore(@NotNull InstanceStore<K, V> delegate, long expectedSize)
+    {
+        this.delegate = delegate;
+        this.filter = new CountingBloomFilter(expectedSize);
+    }
+
+    boolean mightContain(@NotNull K key, int instanceId)
+    {
+        return filter.mightContain(CountingBloomFilter.hash(key.hashCode(), instanceId));
+    }
+
+    @NotNull
+    InstanceStore<K, V> delegate()
+    {
+        return delegate;
+    }
+
+    @Nullable
+    @Override
+    public V get(@NotNull K key, int instanceId)
+    {
+        return delegate.get(key, instanceId);
+    }
+
+    @Nullable
+    @Override
+    public V computeIfAbsent(@NotNull K key, int instanceId, @NotNull IntFunction<? extends V> mappingFunction)
+    {
+        // The stores only run the mapping function when they are about to insert its result,
+        // so members are counted before they become visible.
+        return delegate.computeIfAbsent(key, instanceId, id ->
+        {
+            V value = mappingFunction.apply(id);
+            if(value != null)
+                filter.add(CountingBloomFilter.hash(key.hashCode(), id));
+
+            return value;
+        });
+    }
+
+    @Override
+    public void getAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] values)
+    {
+        delegate.getAll(key, instanceIds, values);
+    }
+
+    @Override
+    public int removeAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] removedValues)
+    {
+        int removed = delegate.removeAll(key, instanceIds, removedValues);
+        if(removed == 0)
+            return 0;
+
+        int keyHash = key.hashCode();
+        for(int i = 0; i < instanceIds.length; i++)
+        {
+            if(removedValues[i] != null)
+                filter.remove(CountingBloomFilter.hash(keyHash, instanceIds[i]));
+        }
+
+        return removed;
+    }
+
+    @Override
+    public boolean remove(@NotNull K key, int instanceId, @NotNull Object expectedValue)
+    {
+        if(!delegate.remove(key, instanceId, expectedValue))
+            return false;
+
+        filter.remove(CountingBloomFilter.hash(key.hashCode(), instanceId));
+        return true;
+    }
+
+    @NotNull
+    @Override
+    public RemovedInstances<V> removeKey(@NotNull K key)
+    {
+        RemovedInstances<V> removed = delegate.removeKey(key);
+
+        int keyHash = key.hashCode();
+        for(int i = 0; i < removed.size(); i++)
+            filter.remove(CountingBloomFilter.hash(keyHash, removed.instanceId(i)));
+
+        return removed;
+    }
+
+    @Override
+    public void drain(@NotNull InstanceConsumer<? super K, ? super V> consumer)
+    {
+        delegate.drain((key, instanceId, value) ->
+        {
+            filter.remove(CountingBloomFilter.hash(key.hashCode(), instanceId));
+            consumer.accept(key, instanceId, value);
+        });
+    }
+
+    @NotNull
+    @Override
+    public Set<K> keys()
+    {
+        return delegate.keys();
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, int instanceId, @NotNull Object expectedValue, @NotNull V newValue)
+    {
+        return delegate.replace(key, instanceId, expectedValue, newValue);
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        return delegate.spliterator(mapper);
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        return delegate.spliterator(key, mapper);
+    }
+
+}
@@ -0,0 +1,585 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.StreamSupport;
+
+final class FlatInstanceStore<K, V> implements InstanceStore<K, V>
+{
+
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final Object TOMBSTONE = new Object();
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final KeySet keys;
+
+    FlatInstanceStore()
+    {
+        int segmentCount = 1;
+        while(segmentCount < Runtime.getRuntime().availableProcessors() * 4)
+            segmentCount <<= 1;
+
+        segments = new Segment[segmentCount];
+        for(int i = 0; i < segmentCount; i++)
+            segments[i] = new Segment();
+
+        segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        keys = new KeySet();
+    }
+
+    @Nullable
+    @Override
+    public V get(@NotNull K key, int instanceId)
+    {
+        int hash = hash(key, instanceId);
+        return (V) segmentFor(hash).get(key, instanceId, hash);
+    }
+
+    @Nullable
+    @Override
+    public V computeIfAbsent(@NotNull K key, int instanceId, @NotNull IntFunction<? extends V> mappingFunction)
+    {
+        int hash = hash(key, instanceId);
+        return (V) segmentFor(hash).computeIfAbsent(key, instanceId, hash, mappingFunction);
+    }
+
+    @Override
+    public void getAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] values)
+    {
+        int keyHash = key.hashCode();
+        for(int i = 0; i < instanceIds.length; i++)
+        {
+            int hash = hash(keyHash, instanceIds[i]);
+            values[i] = segmentFor(hash).get(key, instanceIds[i], hash);
+        }
+    }
+
+    @Override
+    public int removeAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] removedValues)
+    {
+        int keyHash = key.hashCode();
+
+        int removed = 0;
+        for(int i = 0; i < instanceIds.length; i++)
+        {
+            int hash = hash(keyHash, instanceIds[i]);
+            Segment segment = segmentFor(hash);
+
+            Object value = segment.get(key, instanceIds[i], hash);
+            if(value == null || value instanceof PendingInstance<?> || !segment.remove(key, instanceIds[i], hash, value))
+                continue;
+
+            removedValues[i] = value;
+            removed++;
+        }
+
+        return removed;
+    }
+
+    @Override
+    public boolean remove(@NotNull K key, int instanceId, @NotNull Object expectedValue)
+    {
+        int hash = hash(key, instanceId);
+        return segmentFor(hash).remove(key, instanceId, hash, expectedValue);
+    }
+
+    @NotNull
+    @Override
+    public RemovedInstances<V> removeKey(@NotNull K key)
+    {
+        RemovedInstances<V> removed = new RemovedInstances<>();
+        for(Segment segment : segments)
+            segment.removeKey(key, (RemovedInstances<Object>) removed);
+
+        return removed;
+    }
+
+    @Override
+    public void drain(@NotNull InstanceConsumer<? super K, ? super V> consumer)
+    {
+        Arrays.stream(segments).parallel().forEach(segment -> segment.drain((InstanceConsumer<Object, Object>) consumer));
+    }
+
+    @NotNull
+    @Override
+    public Set<K> keys()
+    {
+        return keys;
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, int instanceId, @NotNull Object expectedValue, @NotNull V newValue)
+    {
+        int hash = hash(key, instanceId);
+        return segmentFor(hash).replace(key, instanceId, hash, expectedValue, newValue);
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        return new SegmentSpliterator<>(segments, 0, segments.length, (InstanceMapper<Object, Object, ? extends R>) mapper);
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        // The composite table keeps no per-key index, so a key's instances are found by filtering a full traversal.
+        return spliterator((k, instanceId, value) -> key.equals(k) ? mapper.map(k, instanceId, value) : null);
+    }
+
+    @NotNull
+    private Segment segmentFor(int hash)
+    {
+        return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static int hash(@NotNull Object key, int instanceId)
+    {
+        return hash(key.hashCode(), instanceId);
+    }
+
+    private static int hash(int keyHash, int instanceId)
+    {
+        int hash = keyHash * 31 + instanceId;
+        hash *= 0x9E3779B9;
+
+        return hash ^ (hash >>> 16);
+    }
+
+    // Without a per-key index, contains scans the table and an iteration remembers the keys it already handed out.
+    private final class KeySet extends AbstractSet<K>
+    {
+
+        @Override
+        public boolean contains(@Nullable Object key)
+        {
+            if(key == null)
+                return false;
+
+            for(Segment segment : segments)
+                if(segment.containsKey(key))
+                    return true;
+
+            return false;
+        }
+
+        @Override
+        public int size()
+        {
+            return (int) Math.min(StreamSupport.stream(spliterator(), false).count(), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return !spliterator().tryAdvance(key -> {});
+        }
+
+        @NotNull
+        @Override
+        public Iterator<K> iterator()
+        {
+            return Spliterators.iterator(spliterator());
+        }
+
+        @NotNull
+        @Override
+        public Spliterator<K> spliterator()
+        {
+            // Shared by every split, so parallel traversals hand out each key once as well.
+            Set<Object> seen = ConcurrentHashMap.newKeySet();
+            return FlatInstanceStore.this.spliterator((key, instanceId, value) -> seen.add(key) ? key : null);
+        }
+
+    }
+
+    private static final class Segment
+    {
+
+        private volatile Table table;
+
+        private int size;
+        private int used;
+
+        private Segment()
+        {
+            table = new Table(MINIMUM_CAPACITY);
+        }
+
+        @Nullable
+        private Object get(@NotNull Object key, int instanceId, int hash)
+        {
+            Table table = this.table;
+
+            int mask = table.mask;
+            int index = hash & mask;
+            while(true)
+            {
+                Object value = VALUES.getAcquire(table.values, index);
+                if(value == null)
+                    return null;
+
+                if(table.matches(index, key, instanceId, hash))
+                    return value == TOMBSTONE ? null : value;
+
+                index = (index + 1) & mask;
+            }
+        }
+
+        @Nullable
+        private Object computeIfAbsent(@NotNull Object key, int instanceId, int hash, @NotNull IntFunction<?> mappingFunction)
+        {
+            Object value = get(key, instanceId, hash);
+            if(value != null)
+                return value;
+
+            synchronized(this)
+            {
+                value = get(key, instanceId, hash);
+                if(value != null)
+                    return value;
+
+                value = mappingFunction.apply(instanceId);
+                if(value == null)
+                    return null;
+
+                Object existing = insert(key, instanceId, hash, value);
+                return existing == null ? value : existing;
+            }
+        }
+
+        private boolean remove(@NotNull Object key, int instanceId, int hash, @NotNull Object expectedValue)
+        {
+            synchronized(this)
+            {
+                Table table = this.table;
+
+                int index = indexOf(table, key, instanceId, hash);
+                if(index < 0 || table.values[index] != expectedValue)
+                    return false;
+
+                clear(table, index);
+                return true;
+            }
+        }
+
+        private void removeKey(@NotNull Object key, @NotNull RemovedInstances<Object> removed)
+        {
+            synchronized(this)
+            {
+                Table table = this.table;
+                for(int i = 0; i < table.values.length; i++)
+                {
+                    Object value = table.values[i];
+                    if(value == null || value == TOMBSTONE || value instanceof PendingInstance<?> || !key.equals(table.keys[i]))
+                        continue;
+
+                    removed.add(table.instanceIds[i], value);
+                    clear(table, i);
+                }
+            }
+        }
+
+        private void drain(@NotNull InstanceConsumer<Object, Object> consumer)
+        {
+            Object[] keys;
+            RemovedInstances<Object> removed = new RemovedInstances<>();
+            synchronized(this)
+            {
+                Table table = this.table;
+
+                keys = new Object[size];
+                for(int i = 0; i < table.values.length; i++)
+                {
+                    Object value = table.values[i];
+                    if(value == null || value == TOMBSTONE || value instanceof PendingInstance<?>)
+                        continue;
+
+                    keys[removed.size()] = table.keys[i];
+                    removed.add(table.instanceIds[i], value);
+                    clear(table, i);
+                }
+            }
+
+            for(int i = 0; i < removed.size(); i++)
+                consumer.accept(keys[i], removed.instanceId(i), removed.value(i));
+        }
+
+        private boolean containsKey(@NotNull Object key)
+        {
+            Table table = this.table;
+            for(int i = 0; i < table.values.length; i++)
+            {
+                Object value = VALUES.getAcquire(table.values, i);
+                if(value != null && value != TOMBSTONE && key.equals(table.keys[i]))
+                    return true;
+            }
+
+            return false;
+        }
+
+        private boolean replace(@NotNull Object key, int instanceId, int hash, @NotNull Object expectedValue, @NotNull Object newValue)
+        {
+            synchronized(this)
+            {
+                Table table = this.table;
+
+                int index = indexOf(table, key, instanceId, hash);
+                if(index < 0 || table.values[index] != expectedValue)
+                    return false;
+
+                VALUES.setRelease(table.values, index, newValue);
+                return true;
+            }
+        }
+
+        @Nullable
+        private Object insert(@NotNull Object key, int instanceId, int hash, @NotNull Object value)
+        {
+            Table table = this.table;
+
+            int index = indexOf(table, key, instanceId, hash);
+            if(index >= 0)
+                return table.values[index];
+
+            if(used + 1 > table.threshold)
+            {
+                table = rehash(table);
+                index = indexOf(table, key, instanceId, hash);
+            }
+
+            index = -index - 1;
+            table.keys[index] = key;
+            table.instanceIds[index] = instanceId;
+            table.hashes[index] = hash;
+            VALUES.setRelease(table.values, index, value);
+
+            size++;
+            used++;
+
+            return null;
+        }
+
+        private void clear(@NotNull Table table, int index)
+        {
+            // Tombstones keep their probe chain but drop the key, so removed keys are not retained until the next rehash.
+            VALUES.setRelease(table.values, index, TOMBSTONE);
+            table.keys[index] = null;
+
+            size--;
+        }
+
+        @NotNull
+        private Table rehash(@NotNull Table table)
+        {
+            int capacity = MINIMUM_CAPACITY;
+            while((size + 1) * 2 > capacity)
+                capacity <<= 1;
+
+            Table rehashed = new Table(capacity);
+            for(int i = 0; i < table.values.length; i++)
+            {
+                Object value = table.values[i];
+                if(value == null || value == TOMBSTONE)
+                    continue;
+
+                int index = -indexOf(rehashed, table.keys[i], table.instanceIds[i], table.hashes[i]) - 1;
+                rehashed.keys[index] = table.keys[i];
+                rehashed.instanceIds[index] = table.instanceIds[i];
+                rehashed.hashes[index] = table.hashes[i];
+                rehashed.values[index] = value;
+            }
+
+            used = size;
+            this.table = rehashed;
+
+            return rehashed;
+        }
+
+        private static int indexOf(@NotNull Table table, @NotNull Object key, int instanceId, int hash)
+        {
+            int mask = table.mask;
+            int index = hash & mask;
+            while(true)
+            {
+                if(table.values[index] == null)
+                    return -index - 1;
+
+                if(table.matches(index, key, instanceId, hash))
+                    return index;
+
+                index = (index + 1) & mask;
+            }
+        }
+
+    }
+
+    private static final class SegmentSpliterator<R> implements Spliterator<R>
+    {
+
+        private final Segment[] segments;
+        private final int segmentFence;
+        private final InstanceMapper<Object, Object, ? extends R> mapper;
+
+        private int segmentIndex;
+        private Table table;
+        private int index;
+        private int fence;
+
+        private SegmentSpliterator(@NotNull Segment[] segments, int segmentIndex, int segmentFence, @NotNull InstanceMapper<Object, Object, ? extends R> mapper)
+        {
+            this.segments = segments;
+            this.segmentIndex = segmentIndex;
+            this.segmentFence = segmentFence;
+            this.mapper = mapper;
+        }
+
+        private SegmentSpliterator(@NotNull Table table, int index, int fence, @NotNull InstanceMapper<Object, Object, ? extends R> mapper)
+        {
+            this(new Segment[0], 0, 0, mapper);
+
+            this.table = table;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(@NotNull Consumer<? super R> action)
+        {
+            while(true)
+            {
+                if(table != null)
+                {
+                    while(index < fence)
+                    {
+                        int slot = index++;
+
+                        Object value = VALUES.getAcquire(table.values, slot);
+                        if(value == null || value == TOMBSTONE)
+                            continue;
+
+                        Object key = table.keys[slot];
+                        if(key == null)
+                            continue;
+
+                        R mapped = mapper.map(key, table.instanceIds[slot], value);
+                        if(mapped != null)
+                        {
+                            action.accept(mapped);
+                            return true;
+                        }
+                    }
+
+                    table = null;
+                }
+
+                if(!nextTable())
+                    return false;
+            }
+        }
+
+        @Nullable
+        @Override
+        public Spliterator<R> trySplit()
+        {
+            if(segmentFence - segmentIndex > 1)
+            {
+                int middle = (segmentIndex + segmentFence) >>> 1;
+
+                SegmentSpliterator<R> prefix = new SegmentSpliterator<>(segments, segmentIndex, middle, mapper);
+                segmentIndex = middle;
+
+                return prefix;
+            }
+
+            if(table == null && !nextTable())
+                return null;
+
+            int middle = (index + fence) >>> 1;
+            if(middle <= index)
+                return null;
+
+            SegmentSpliterator<R> prefix = new SegmentSpliterator<>(table, index, middle, mapper);
+            index = middle;
+
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            long estimate = table == null ? 0 : fence - index;
+            for(int i = segmentIndex; i < segmentFence; i++)
+                estimate += segments[i].size;
+
+            return estimate;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return CONCURRENT | NONNULL;
+        }
+
+        private boolean nextTable()
+        {
+            if(segmentIndex >= segmentFence)
+                return false;
+
+            table = segments[segmentIndex++].table;
+            index = 0;
+            fence = table.values.length;
+
+            return true;
+        }
+
+    }
+
+    private static final class Table
+    {
+
+        private final Object[] keys;
+        private final int[] instanceIds;
+        private final int[] hashes;
+        private final Object[] values;
+        private final int mask;
+        private final int threshold;
+
+        private Table(int capacity)
+        {
+            keys = new Object[capacity];
+            instanceIds = new int[capacity];
+            hashes = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            threshold = capacity - (capacity >>> 2);
+        }
+
+        private boolean matches(int index, @NotNull Object key, int instanceId, int hash)
+        {
+            if(hashes[index] != hash || instanceIds[index] != instanceId)
+                return false;
+
+            Object candidate = keys[index];
+            return candidate == key || key.equals(candidate);
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+package de.fiertubehd;
+
+final class FrequencySketch
+{
+
+    private static final long[] SEEDS =
+            {
+                    0xc3a5c85c97cb3127L,
+                    0xb492b66fbe98f273L,
+                    0x9ae16a3b2f90404fL,
+                    0xcbf29ce484222325L
+            };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+
+    private int size;
+
+    FrequencySketch(long maximumSize)
+    {
+        int capacity = (int) Math.min(Math.max(maximumSize, 8), 1 << 30);
+
+        table = new long[Integer.highestOneBit(capacity - 1) << 1];
+        tableMask = table.length - 1;
+        sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    int frequency(int hash)
+    {
+        int item = spread(hash);
+        int start = (item & 3) << 2;
+
+        int frequency = Integer.MAX_VALUE;
+        for(int i = 0; i < 4; i++)
+        {
+            int index = indexOf(item, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    void increment(int hash)
+    {
+        int item = spread(hash);
+        int start = (item & 3) << 2;
+
+        boolean added = false;
+        for(int i = 0; i < 4; i++)
+            added |= incrementAt(indexOf(item, i), start + i);
+
+        if(added && ++size == sampleSize)
+            reset();
+    }
+
+    private boolean incrementAt(int index, int counter)
+    {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+
+        if((table[index] & mask) == mask)
+            return false;
+
+        table[index] += 1L << offset;
+        return true;
+    }
+
+    private void reset()
+    {
+        int oddCounters = 0;
+        for(int i = 0; i < table.length; i++)
+        {
+            oddCounters += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+
+        size = (size >>> 1) - (oddCounters >>> 2);
+    }
+
+    private int indexOf(int item, int i)
+    {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int hash)
+    {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+
+        return (hash >>> 16) ^ hash;
+    }
+
+}
@@ -0,0 +1,96 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+final class GeneratedFactories
+{
+
+    private static final ClassValue<Optional<InstanceFactory<?>>> generatedFactories = new ClassValue<>()
+    {
+        @Override
+        protected Optional<InstanceFactory<?>> computeValue(Class<?> type)
+        {
+            return Optional.ofNullable(load(type));
+        }
+    };
+
+    private GeneratedFactories()
+    {
+
+    }
+
+    @Nullable
+    static <E> InstanceFactory<E> of(@NotNull Class<E> instanceClazz)
+    {
+        return (InstanceFactory<E>) generatedFactories.get(instanceClazz).orElse(null);
+    }
+
+    @Nullable
+    private static InstanceFactory<?> load(@NotNull Class<?> instanceClazz)
+    {
+        ClassLoader classLoader = instanceClazz.getClassLoader();
+        if(classLoader == null)
+            return null;
+
+        // Classes without a generated factory never touch the service loader.
+        String factoryName = factoryNameOf(instanceClazz);
+        try
+        {
+            Class.forName(factoryName, false, classLoader);
+
+        }catch(ClassNotFoundException | LinkageError ignored)
+        {
+            return null;
+        }
+
+        try
+        {
+            Iterator<ServiceLoader.Provider<InstanceFactory>> providers = ServiceLoader.load(InstanceFactory.class, classLoader).stream().iterator();
+            while(providers.hasNext())
+            {
+                ServiceLoader.Provider<InstanceFactory> provider;
+                try
+                {
+                    provider = providers.next();
+
+                }catch(ServiceConfigurationError ignored)
+                {
+                    // Providers that cannot be loaded are skipped.
+                    continue;
+                }
+
+                // Only the provider generated for this class is instantiated.
+                if(!provider.type().getName().equals(factoryName))
+                    continue;
+
+                InstanceFactory<?> factory = provider.get();
+                if(factory.instanceClass() == instanceClazz)
+                    return factory;
+            }
+
+        }catch(ServiceConfigurationError ignored)
+        {
+            // Broken provider configurations fall back to constructor resolution.
+        }
+
+        return null;
+    }
+
+    // Mirrors the names the annotation processor gives its factories: enclosing classes joined by underscores.
+    @NotNull
+    static String factoryNameOf(@NotNull Class<?> instanceClazz)
+    {
+        String packageName = instanceClazz.getPackageName();
+        String binaryName = packageName.isEmpty() ? instanceClazz.getName() : instanceClazz.getName().substring(packageName.length() + 1);
+
+        String factoryName = binaryName.replace('$', '_') + "InstanceFactory";
+        return packageName.isEmpty() ? factoryName : packageName + "." + factoryName;
+    }
+
+}
@@ -0,0 +1,11 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+@FunctionalInterface
+public interface InstanceConsumer<K, I>
+{
+
+    void accept(@NotNull K key, int instanceId, @NotNull I instance);
+
+}
@@ -0,0 +1,81 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.util.function.IntFunction;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("de.fiertubehd.InstanceCreation")
+@Label("Instance Creation")
+@Description("Creation of a managed instance on a getInstance miss")
+@Category("InstanceManager")
+@Enabled(false)
+@StackTrace(false)
+final class InstanceCreationEvent extends Event
+{
+
+    // Looked up once, so checking whether the event is enabled allocates nothing on the creation path.
+    private static final EventType TYPE = EventType.getEventType(InstanceCreationEvent.class);
+
+    @Label("Instance Class")
+    Class<?> instanceClass;
+
+    @Label("Key Type")
+    Class<?> keyType;
+
+    @Label("Instance Id")
+    int instanceId;
+
+    @Label("Success")
+    boolean success;
+
+    static boolean isRecording()
+    {
+        return TYPE.isEnabled();
+    }
+
+    @NotNull
+    static IntFunction<Object> timed(@NotNull Object key, @NotNull Class<?> instanceClass, @NotNull IntFunction<Object> mappingFunction)
+    {
+        return instanceId ->
+        {
+            InstanceCreationEvent event = new InstanceCreationEvent();
+            event.begin();
+
+            boolean success = false;
+            try
+            {
+                Object value = mappingFunction.apply(instanceId);
+                success = true;
+
+                return value;
+
+            }finally
+            {
+                event.complete(key, instanceClass, instanceId, success);
+            }
+        };
+    }
+
+    void complete(@NotNull Object key, @NotNull Class<?> instanceClass, int instanceId, boolean success)
+    {
+        if(!shouldCommit())
+            return;
+
+        this.instanceClass = instanceClass;
+        this.keyType = key.getClass();
+        this.instanceId = instanceId;
+        this.success = success;
+
+        commit();
+    }
+
+}
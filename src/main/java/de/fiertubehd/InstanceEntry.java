@@ -0,0 +1,165 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+final class InstanceEntry<K, V>
+{
+
+    static final int NEW = 0;
+    static final int ALIVE = 1;
+    static final int RETIRED = 2;
+    static final int DEAD = 3;
+
+    static final byte UNLINKED = 0;
+    static final byte WINDOW = 1;
+    static final byte PROBATION = 2;
+    static final byte PROTECTED = 3;
+
+    private static final VarHandle STATE;
+
+    static
+    {
+        try
+        {
+            STATE = MethodHandles.lookup().findVarHandle(InstanceEntry.class, "state", int.class);
+
+        }catch(ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final K key;
+    final int instanceId;
+
+    private final Reference<V> reference;
+    private V value;
+
+    private volatile int state;
+    volatile long expiresAt;
+    long writeTime;
+
+    InstanceEntry<K, V> previous;
+    InstanceEntry<K, V> next;
+    InstanceEntry<K, V> previousInKey;
+    InstanceEntry<K, V> nextInKey;
+    InstanceEntry<K, V> previousInTimer;
+    InstanceEntry<K, V> nextInTimer;
+    EntryDeque<K, V> timerBucket;
+    byte queue;
+    boolean tracked;
+
+    InstanceEntry(@NotNull K key, int instanceId, @NotNull V value, @NotNull ValueStrength valueStrength, @Nullable ReferenceQueue<V> referenceQueue)
+    {
+        this.key = key;
+        this.instanceId = instanceId;
+        this.value = value;
+        this.expiresAt = Long.MAX_VALUE;
+
+        reference = switch(valueStrength)
+        {
+            case STRONG -> null;
+            case WEAK -> new WeakValue<>(this, value, referenceQueue);
+            case SOFT -> new SoftValue<>(this, value, referenceQueue);
+        };
+    }
+
+    @Nullable
+    V value()
+    {
+        Reference<V> reference = this.reference;
+        return reference == null ? value : reference.get();
+    }
+
+    @NotNull
+    V unpin()
+    {
+        V value = this.value;
+        if(reference != null)
+            this.value = null;
+
+        return value;
+    }
+
+    boolean announce()
+    {
+        return STATE.compareAndSet(this, NEW, ALIVE);
+    }
+
+    void retire()
+    {
+        state = RETIRED;
+    }
+
+    void die()
+    {
+        state = DEAD;
+    }
+
+    boolean isAlive()
+    {
+        return state == ALIVE;
+    }
+
+    int hash()
+    {
+        return key.hashCode() * 31 + instanceId;
+    }
+
+    interface ValueReference
+    {
+
+        @NotNull
+        InstanceEntry<?, ?> entry();
+
+    }
+
+    private static final class WeakValue<V> extends WeakReference<V> implements ValueReference
+    {
+
+        private final InstanceEntry<?, V> entry;
+
+        private WeakValue(@NotNull InstanceEntry<?, V> entry, @NotNull V value, @Nullable ReferenceQueue<V> referenceQueue)
+        {
+            super(value, referenceQueue);
+            this.entry = entry;
+        }
+
+        @NotNull
+        @Override
+        public InstanceEntry<?, ?> entry()
+        {
+            return entry;
+        }
+
+    }
+
+    private static final class SoftValue<V> extends SoftReference<V> implements ValueReference
+    {
+
+        private final InstanceEntry<?, V> entry;
+
+        private SoftValue(@NotNull InstanceEntry<?, V> entry, @NotNull V value, @Nullable ReferenceQueue<V> referenceQueue)
+        {
+            super(value, referenceQueue);
+            this.entry = entry;
+        }
+
+        @NotNull
+        @Override
+        public InstanceEntry<?, ?> entry()
+        {
+            return entry;
+        }
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+public interface InstanceFactory<I>
+{
+
+    @NotNull
+    Class<I> instanceClass();
+
+    @Nullable("if no constructor accepts the parameters")
+    I newInstance(@NotNull Object[] parameters) throws Throwable;
+
+}
@@ -0,0 +1,9 @@
+package de.fiertubehd;
+
+@FunctionalInterface
+public interface InstanceFunction<K, I>
+{
+
+    I apply(K key, int instanceId);
+
+}
@@ -0,0 +1,684 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+final class InstanceJournal<K>
+{
+
+    private static final int MAGIC = 0x494D4A4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INITIAL_RECORD_SIZE = 128;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAXIMUM_BATCH_SIZE = 4096;
+    static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+    private static final long CREATION_QUEUE_TIMEOUT_MILLIS = 100;
+
+    private static final byte CREATED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte REMOVED_KEY = 3;
+
+    // Journals share their writer threads by default, so an idle journal holds none and a dropped one only leaves its file to the cleaner.
+    static final Executor WRITERS = Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("InstanceManager-journal-", 0).factory());
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Path path;
+    private final Path previousPath;
+    private final Codec<? super K> keyCodec;
+    private final Codec<Object[]> parametersCodec;
+    private final JournalFailureListener failureListener;
+    private final Executor writer;
+
+    private final ArrayBlockingQueue<Object> records;
+    private final AtomicBoolean scheduled;
+    private final AtomicReference<IOException> failure;
+
+    private final OpenFile file;
+    private final Cleaner.Cleanable cleanable;
+    private ByteBuffer buffer;
+    private boolean finished;
+
+    private volatile boolean closed;
+
+    private InstanceJournal(@NotNull Path path, @NotNull Codec<? super K> keyCodec, @NotNull Codec<Object[]> parametersCodec, @NotNull JournalFailureListener failureListener, @NotNull Executor writer, int queueCapacity, @NotNull FileChannel channel)
+    {
+        this.path = path;
+        this.previousPath = previousPathOf(path);
+        this.keyCodec = keyCodec;
+        this.parametersCodec = parametersCodec;
+        this.failureListener = failureListener;
+        this.writer = writer;
+
+        records = new ArrayBlockingQueue<>(queueCapacity);
+        failure = new AtomicReference<>();
+        scheduled = new AtomicBoolean();
+
+        file = new OpenFile(channel);
+        cleanable = CLEANER.register(this, file);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    @NotNull
+    static <K> InstanceJournal<K> open(@NotNull Path path, @NotNull Codec<K> keyCodec, @NotNull Codec<Object[]> parametersCodec, @NotNull JournalFailureListener failureListener, @NotNull Executor writer, int queueCapacity, @NotNull Replay<K> replay) throws IOException
+    {
+        // Compaction keeps the newest removal and the newest creation per instance. Removals stay as
+        // tombstones because the instances they remove may come from the snapshot taken before this journal started.
+        Map<K, RetainedRecords> retained = new LinkedHashMap<>();
+
+        Path previousPath = previousPathOf(path);
+        replay(previousPath, keyCodec, parametersCodec, replay, retained);
+        replay(path, keyCodec, parametersCodec, replay, retained);
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            writeFully(compacted, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip());
+
+            for(RetainedRecords records : retained.values())
+            {
+                if(records.removedKey != null)
+                    writeFully(compacted, frame(records.removedKey));
+
+                for(ByteBuffer payload : records.removed.values())
+                    writeFully(compacted, frame(payload));
+
+                for(ByteBuffer payload : records.created.values())
+                    writeFully(compacted, frame(payload));
+            }
+
+            compacted.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(previousPath);
+
+        return new InstanceJournal<>(path, keyCodec, parametersCodec, failureListener, writer, queueCapacity, openForAppend(path));
+    }
+
+    void created(@NotNull K key, int instanceId, @NotNull Object[] parameters) throws RuntimeException
+    {
+        checkWritable();
+
+        // Records are encoded by the caller, so a failing codec only fails the change it was given. The creation
+        // is not installed yet either, so a queue that stays full fails it instead of the journal.
+        ByteBuffer record = encode(CREATED, key, instanceId, parameters);
+
+        boolean queued;
+        boolean interrupted = false;
+        try
+        {
+            queued = records.offer(record, CREATION_QUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        }catch(InterruptedException e)
+        {
+            queued = false;
+            interrupted = true;
+        }
+
+        schedule();
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+
+        if(!queued)
+            throw new IllegalStateException("The journal queue is full, so the creation could not be recorded.");
+
+        checkWritable();
+    }
+
+    void removed(@NotNull K key, int instanceId) throws RuntimeException
+    {
+        appendRemoval(encode(REMOVED, key, instanceId, null));
+    }
+
+    void removedKey(@NotNull K key) throws RuntimeException
+    {
+        appendRemoval(encode(REMOVED_KEY, key, -1, null));
+    }
+
+    void checkWritable() throws RuntimeException
+    {
+        IOException failure = this.failure.get();
+        if(failure != null)
+            throw new UncheckedIOException("The journal failed, so changes can no longer be recorded.", failure);
+
+        if(closed)
+            throw new IllegalStateException("The journal is closed.");
+    }
+
+    void sync() throws RuntimeException
+    {
+        await(control(new Sync(new CompletableFuture<>())));
+    }
+
+    void roll() throws RuntimeException
+    {
+        await(control(new Roll(new CompletableFuture<>())));
+    }
+
+    void dropPrevious() throws IOException
+    {
+        Files.deleteIfExists(previousPath);
+    }
+
+    void close() throws RuntimeException
+    {
+        if(closed)
+            return;
+
+        CompletableFuture<Void> future = control(new Close(new CompletableFuture<>()));
+        closed = true;
+
+        await(future);
+    }
+
+    private void appendRemoval(@NotNull ByteBuffer record) throws RuntimeException
+    {
+        checkWritable();
+
+        // A removal already happened and cannot be dropped, so it waits for room like a control does.
+        putUninterruptibly(record);
+        schedule();
+
+        checkWritable();
+    }
+
+    @NotNull
+    private CompletableFuture<Void> control(@NotNull Control control)
+    {
+        if(closed)
+        {
+            IOException failure = this.failure.get();
+            if(failure != null)
+                return CompletableFuture.failedFuture(failure);
+
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Controls wait for the writer anyway, so they wait for room in the queue as well.
+        putUninterruptibly(control);
+        schedule();
+
+        IOException failure = this.failure.get();
+        if(failure != null)
+            control.future().completeExceptionally(failure);
+
+        return control.future();
+    }
+
+    private void putUninterruptibly(@NotNull Object record)
+    {
+        boolean interrupted = false;
+        while(true)
+        {
+            try
+            {
+                records.put(record);
+                break;
+
+            }catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void schedule()
+    {
+        if(!scheduled.get() && scheduled.compareAndSet(false, true))
+            writer.execute(this::drain);
+    }
+
+    private void drain()
+    {
+        List<Object> batch = new ArrayList<>();
+        while(true)
+        {
+            records.drainTo(batch, MAXIMUM_BATCH_SIZE);
+            if(batch.isEmpty())
+            {
+                scheduled.set(false);
+
+                // A record enqueued after the last drain but before the flag was cleared did not schedule another one.
+                if(records.isEmpty() || !scheduled.compareAndSet(false, true))
+                    return;
+
+                continue;
+            }
+
+            try
+            {
+                if(!finished && failure.get() != null)
+                    abandon();
+
+                if(finished)
+                    discard(batch);
+                else
+                    write(batch);
+
+            }finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(@NotNull List<Object> batch)
+    {
+        List<Control> controls = new ArrayList<>();
+        boolean closing = false;
+        try
+        {
+            for(Object record : batch)
+            {
+                if(record instanceof ByteBuffer encoded)
+                {
+                    write(encoded);
+                    continue;
+                }
+
+                // Records enqueued before a control become durable before it completes.
+                flushBuffer();
+                file.channel.force(false);
+
+                if(record instanceof Roll)
+                    rollFile();
+                else if(record instanceof Close)
+                    closing = true;
+
+                controls.add((Control) record);
+            }
+
+            flushBuffer();
+            file.channel.force(false);
+
+            if(closing)
+            {
+                finished = true;
+                cleanable.clean();
+            }
+
+            for(Control control : controls)
+                control.future().complete(null);
+
+        }catch(IOException e)
+        {
+            fail(e);
+            abandon();
+
+            // Controls behind the failed record in the same batch were never reached, so they fail as well.
+            discard(batch);
+        }
+    }
+
+    private void write(@NotNull ByteBuffer record) throws IOException
+    {
+        CRC32C checksum = new CRC32C();
+        checksum.update(record.slice(RECORD_HEADER_SIZE, record.remaining() - RECORD_HEADER_SIZE));
+        record.putInt(Integer.BYTES, (int) checksum.getValue());
+
+        if(buffer.remaining() < record.remaining())
+            flushBuffer();
+
+        // A record larger than the whole buffer bypasses it.
+        if(buffer.remaining() < record.remaining())
+            writeFully(file.channel, record);
+        else
+            buffer.put(record);
+    }
+
+    @NotNull
+    private ByteBuffer encode(byte type, @NotNull K key, int instanceId, @Nullable Object[] parameters)
+    {
+        ByteBuffer record = ByteBuffer.allocate(INITIAL_RECORD_SIZE);
+        while(true)
+        {
+            try
+            {
+                record.position(RECORD_HEADER_SIZE);
+                record.put(type);
+                record.putInt(instanceId);
+                encode(record, key, keyCodec);
+                if(parameters != null)
+                    parametersCodec.encode(parameters, record);
+
+                return record.putInt(0, record.position() - RECORD_HEADER_SIZE).flip();
+
+            }catch(BufferOverflowException e)
+            {
+                record = ByteBuffer.allocate(record.capacity() << 1);
+            }
+        }
+    }
+
+    private static <T> void encode(@NotNull ByteBuffer record, @NotNull T value, @NotNull Codec<? super T> codec)
+    {
+        int lengthPosition = record.position();
+        record.putInt(0);
+
+        codec.encode(value, record);
+        record.putInt(lengthPosition, record.position() - lengthPosition - Integer.BYTES);
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        buffer.flip();
+        writeFully(file.channel, buffer);
+        buffer.clear();
+    }
+
+    private void rollFile() throws IOException
+    {
+        file.channel.close();
+
+        if(Files.exists(previousPath))
+        {
+            // An earlier checkpoint failed, so its records are still needed after the previous ones.
+            try(FileChannel previous = FileChannel.open(previousPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                FileChannel current = FileChannel.open(path, StandardOpenOption.READ))
+            {
+                long position = HEADER_SIZE;
+                long size = current.size();
+                while(position < size)
+                    position += current.transferTo(position, size - position, previous);
+
+                previous.force(true);
+            }
+        }else
+        {
+            Files.move(path, previousPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        try(FileChannel created = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            writeFully(created, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip());
+            created.force(true);
+        }
+
+        file.channel = openForAppend(path);
+    }
+
+    private void fail(@NotNull IOException failure)
+    {
+        // Only the first failure is kept; it is what every later change and control reports.
+        this.failure.compareAndSet(null, failure);
+        closed = true;
+    }
+
+    private void abandon()
+    {
+        finished = true;
+        cleanable.clean();
+
+        try
+        {
+            failureListener.onFailure(failure.get());
+
+        }catch(Exception e)
+        {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private void discard(@NotNull List<Object> batch)
+    {
+        IOException failure = this.failure.get();
+        for(Object record : batch)
+        {
+            if(!(record instanceof Control control))
+                continue;
+
+            if(failure != null)
+                control.future().completeExceptionally(failure);
+            else
+                control.future().complete(null);
+        }
+    }
+
+    private static void await(@NotNull CompletableFuture<Void> future) throws RuntimeException
+    {
+        try
+        {
+            future.join();
+
+        }catch(CompletionException e)
+        {
+            if(e.getCause() instanceof RuntimeException cause)
+                throw cause;
+
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static <K> void replay(@NotNull Path path, @NotNull Codec<K> keyCodec, @NotNull Codec<Object[]> parametersCodec, @NotNull Replay<K> replay, @NotNull Map<K, RetainedRecords> retained) throws IOException
+    {
+        if(!Files.exists(path))
+            return;
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+            window.flip();
+
+            if(!fill(channel, window, HEADER_SIZE))
+                return;
+
+            if(window.getInt() != MAGIC || window.getInt() != VERSION)
+                throw new IllegalArgumentException(path + " is not an instance journal.");
+
+            while(fill(channel, window, RECORD_HEADER_SIZE))
+            {
+                int length = window.getInt(window.position());
+                int checksum = window.getInt(window.position() + Integer.BYTES);
+                if(length < Byte.BYTES + Integer.BYTES * 2 || length > channel.size())
+                    return;
+
+                if(window.capacity() < RECORD_HEADER_SIZE + length)
+                    window = ByteBuffer.allocate(RECORD_HEADER_SIZE + length).put(window).flip();
+
+                // A torn or corrupted tail ends the replay; compaction then drops it.
+                if(!fill(channel, window, RECORD_HEADER_SIZE + length))
+                    return;
+
+                ByteBuffer payload = window.slice(window.position() + RECORD_HEADER_SIZE, length);
+
+                CRC32C actual = new CRC32C();
+                actual.update(payload.duplicate());
+                if((int) actual.getValue() != checksum)
+                    return;
+
+                window.position(window.position() + RECORD_HEADER_SIZE + length);
+                apply(payload, keyCodec, parametersCodec, replay, retained);
+            }
+        }
+    }
+
+    private static <K> void apply(@NotNull ByteBuffer payload, @NotNull Codec<K> keyCodec, @NotNull Codec<Object[]> parametersCodec, @NotNull Replay<K> replay, @NotNull Map<K, RetainedRecords> retained)
+    {
+        ByteBuffer record = payload.duplicate();
+
+        byte type = record.get();
+        int instanceId = record.getInt();
+        int keyLength = record.getInt();
+
+        K key = keyCodec.decode(record.slice(record.position(), keyLength).asReadOnlyBuffer());
+        record.position(record.position() + keyLength);
+
+        RetainedRecords records = retained.computeIfAbsent(key, k -> new RetainedRecords());
+        ByteBuffer copy = ByteBuffer.allocate(payload.remaining()).put(payload.duplicate()).flip();
+
+        switch(type)
+        {
+            case CREATED ->
+            {
+                records.created.put(instanceId, copy);
+                replay.created(key, instanceId, parametersCodec.decode(record.slice().asReadOnlyBuffer()));
+            }
+            case REMOVED ->
+            {
+                records.removed.put(instanceId, copy);
+                records.created.remove(instanceId);
+                replay.removed(key, instanceId);
+            }
+            case REMOVED_KEY ->
+            {
+                records.removed.clear();
+                records.created.clear();
+                records.removedKey = copy;
+                replay.removedKey(key);
+            }
+            default -> throw new IllegalArgumentException("Unknown journal record type " + type + ".");
+        }
+    }
+
+    private static boolean fill(@NotNull FileChannel channel, @NotNull ByteBuffer window, int required) throws IOException
+    {
+        if(window.remaining() >= required)
+            return true;
+
+        window.compact();
+        try
+        {
+            while(window.position() < required)
+            {
+                if(channel.read(window) < 0)
+                    return false;
+            }
+
+            return true;
+
+        }finally
+        {
+            window.flip();
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer frame(@NotNull ByteBuffer payload)
+    {
+        CRC32C checksum = new CRC32C();
+        checksum.update(payload.duplicate());
+
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.remaining())
+                .putInt(payload.remaining())
+                .putInt((int) checksum.getValue())
+                .put(payload.duplicate())
+                .flip();
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    @NotNull
+    private static FileChannel openForAppend(@NotNull Path path) throws IOException
+    {
+        return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @NotNull
+    private static Path previousPathOf(@NotNull Path path)
+    {
+        return path.resolveSibling(path.getFileName() + ".previous");
+    }
+
+    interface Replay<K>
+    {
+
+        void created(@NotNull K key, int instanceId, @NotNull Object[] parameters);
+
+        void removed(@NotNull K key, int instanceId);
+
+        void removedKey(@NotNull K key);
+
+    }
+
+    private static final class RetainedRecords
+    {
+
+        private final Map<Integer, ByteBuffer> removed = new HashMap<>();
+        private final Map<Integer, ByteBuffer> created = new HashMap<>();
+
+        private ByteBuffer removedKey;
+
+    }
+
+    private static final class OpenFile implements Runnable
+    {
+
+        private volatile FileChannel channel;
+
+        private OpenFile(@NotNull FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                channel.close();
+
+            }catch(IOException ignored)
+            {
+                // The journal is closed, failed or no longer reachable.
+            }
+        }
+
+    }
+
+    private interface Control
+    {
+
+        @NotNull
+        CompletableFuture<Void> future();
+
+    }
+
+    private record Sync(@NotNull CompletableFuture<Void> future) implements Control
+    {
+    }
+
+    private record Roll(@NotNull CompletableFuture<Void> future) implements Control
+    {
+    }
+
+    private record Close(@NotNull CompletableFuture<Void> future) implements Control
+    {
+    }
+
+}
@@ -3,17 +3,45 @@ package de.fiertubehd;
 import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
 import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
-import java.util.Arrays;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class InstanceManager<K, I>
 {
 
+    private static final int PREWARM_BATCH_SIZE = 64;
+
     private static final HashMap<Class<?>, Class<?>> primitiveWrapperMap;
 
     static
@@ -31,16 +59,86 @@ public class InstanceManager<K, I>
         primitiveWrapperMap.put(Void.TYPE, Void.TYPE);
     }
 
-    private final ConcurrentHashMap<K, ConcurrentHashMap<Integer, I>> instances;
+    private final InstanceStore<K, Object> instances;
+    private final FilteredInstanceStore<K, Object> lookupFilter;
     private final Class<I> instanceClazz;
+    private final EntryPolicy<K, I> policy;
+    private final Executor executor;
+
+    private final Executor cleanupExecutor;
+    private final RemovalListener<? super K, ? super I> removalListener;
+    private final boolean closeOnRemoval;
+    private final long failureBackoffNanos;
+
+    private final StatsCounter stats;
+    private final ObjectName statsObjectName;
+
+    // Opened by recover once the manager is constructed, and never changed afterwards. Volatile, so a manager
+    // handed to another thread without synchronization still sees the journal its builder opened.
+    private volatile InstanceJournal<K> journal;
 
     public InstanceManager(@NotNull Class<I> instanceClazz)
     {
-        Objects.requireNonNull(instanceClazz, "InstanceClazz cannot be null.");
+        this(instanceClazz, StorageMode.NESTED);
+    }
+
+    public InstanceManager(@NotNull Class<I> instanceClazz, @NotNull StorageMode storageMode)
+    {
+        this(new InstanceManagerBuilder<K, I>(instanceClazz).storageMode(storageMode));
+    }
+
+    InstanceManager(@NotNull InstanceManagerBuilder<K, I> builder)
+    {
+        InstanceStore<K, Object> store = switch(builder.storageMode)
+        {
+            case NESTED -> new NestedInstanceStore<>();
+            case FLAT -> new FlatInstanceStore<>();
+            case SHARDED -> new ShardedInstanceStore<>(builder.shardCount, builder.recordStats);
+        };
+
+        lookupFilter = builder.lookupFilterSize > 0 ? new FilteredInstanceStore<>(store, builder.lookupFilterSize) : null;
+        instances = lookupFilter == null ? store : lookupFilter;
+
+        instanceClazz = builder.instanceClazz;
+
+        executor = builder.executor;
 
-        instances = new ConcurrentHashMap<>();
+        cleanupExecutor = builder.cleanupExecutor;
+        removalListener = builder.removalListener;
+        closeOnRemoval = builder.closeOnRemoval;
+        failureBackoffNanos = builder.failureBackoffNanos;
 
-        this.instanceClazz = instanceClazz;
+        stats = builder.recordStats ? new StatsCounter() : null;
+        statsObjectName = builder.statsMBeanName == null ? null : registerStatsMBean(builder.statsMBeanName, stats);
+
+        policy = builder.requiresPolicy() ? new EntryPolicy<>(instances, builder, stats != null || observesRemovals() ? this::afterEviction : null) : null;
+    }
+
+    // Runs after construction, so the snapshot and the journal replay only reach a fully initialized manager.
+    void recover(@NotNull InstanceManagerBuilder<K, I> builder) throws RuntimeException
+    {
+        try
+        {
+            if(builder.snapshotPath != null && Files.exists(builder.snapshotPath))
+                restore(builder.snapshotPath, builder.snapshotKeyCodec, builder.snapshotInstanceCodec);
+
+            if(builder.journalPath != null)
+                journal = openJournal(builder.journalPath, builder.journalKeyCodec, builder.journalParametersCodec, builder.journalFailureListener, builder.journalExecutor, builder.journalQueueCapacity);
+
+        }catch(RuntimeException | Error e)
+        {
+            // The manager is never handed out, so its MBean would otherwise stay registered under the name.
+            if(statsObjectName != null)
+                unregisterStatsMBean(statsObjectName);
+
+            throw e;
+        }
+    }
+
+    @NotNull
+    public static <K, I> InstanceManagerBuilder<K, I> builder(@NotNull Class<I> instanceClazz)
+    {
+        return new InstanceManagerBuilder<>(instanceClazz);
     }
 
 
@@ -51,13 +149,19 @@ public class InstanceManager<K, I>
         if(key == null || !isValidInstanceId(instanceId))
             return null;
 
-        ConcurrentHashMap<Integer, I> innerMap = instances.get(key);
-        if(innerMap == null)
+        if(lookupFilter != null && !lookupFilter.mightContain(key, instanceId))
+        {
+            if(stats != null)
+                stats.recordMiss();
+
             return null;
+        }
 
-        return innerMap.get(instanceId);
+        return findInstance(key, instanceId);
     }
 
+    // Throws an IllegalArgumentException if no constructor matches the parameters, and a RuntimeException caused by
+    // the InvocationTargetException if the matching constructor throws. getInstances and prewarm fail the same way.
     public I getInstance(@NotNull K key, int instanceId, @NotNull Object[] parameters) throws RuntimeException
     {
         Objects.requireNonNull(key, "Key cannot be null.");
@@ -67,140 +171,1295 @@ public class InstanceManager<K, I>
 
         Objects.requireNonNull(parameters, "Parameters cannot be null.");
 
-        ConcurrentHashMap<Integer, I> innerMap = instances.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        I existing = findInstance(key, instanceId);
+        if(existing != null)
+            return existing;
 
-        I instance = innerMap.computeIfAbsent(instanceId, integer ->
-        {
-            try
-            {
-                return createInstance(instanceClazz, parameters);
+        return obtainInstance(key, instanceId, creationFunction(key, parameters));
+    }
 
-            }catch(Exception e)
-            {
-                throw new RuntimeException(e);
-            }
-        });
+    public I computeIfAbsent(@NotNull K key, int instanceId, @NotNull InstanceFunction<? super K, ? extends I> factory)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
 
-        return instance;
+        if(!isValidInstanceId(instanceId))
+            throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        Objects.requireNonNull(factory, "Factory cannot be null.");
+
+        checkFactoryCreationsAllowed();
+
+        I instance = findInstance(key, instanceId);
+        if(instance != null)
+            return instance;
+
+        return obtainInstance(key, instanceId, id -> toStored(key, id, factory.apply(key, id)));
     }
 
-    public boolean unregisterInstance(@NotNull K key, int instanceId)
+    public I getInstanceWith(@NotNull K key, int instanceId, @NotNull Supplier<? extends I> factory)
     {
         Objects.requireNonNull(key, "Key cannot be null.");
 
         if(!isValidInstanceId(instanceId))
             throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
 
-        ConcurrentHashMap<Integer, I> innerMap = instances.get(key);
-        if(innerMap == null)
-            return false;
+        Objects.requireNonNull(factory, "Factory cannot be null.");
 
-        AtomicBoolean result = new AtomicBoolean(false);
-        innerMap.computeIfPresent(instanceId, (integer, i) ->
-        {
-            result.set(true);
-            return null;
-        });
+        checkFactoryCreationsAllowed();
+
+        I instance = findInstance(key, instanceId);
+        if(instance != null)
+            return instance;
 
-        return result.get();
+        return obtainInstance(key, instanceId, id -> toStored(key, id, factory.get()));
     }
 
-    public boolean existsInstance(@Nullable K key, int instanceId)
+    public <A> I getInstanceWith(@NotNull K key, int instanceId, @NotNull Function<? super A, ? extends I> factory, A first)
     {
-        if(key == null || !isValidInstanceId(instanceId))
-            return false;
+        Objects.requireNonNull(key, "Key cannot be null.");
 
-        ConcurrentHashMap<Integer, I> innerMap = instances.get(key);
-        if(innerMap == null)
-            return false;
+        if(!isValidInstanceId(instanceId))
+            throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        Objects.requireNonNull(factory, "Factory cannot be null.");
+
+        checkFactoryCreationsAllowed();
+
+        I instance = findInstance(key, instanceId);
+        if(instance != null)
+            return instance;
+
+        return obtainInstance(key, instanceId, id -> toStored(key, id, factory.apply(first)));
+    }
+
+    public <A, B> I getInstanceWith(@NotNull K key, int instanceId, @NotNull BiFunction<? super A, ? super B, ? extends I> factory, A first, B second)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        if(!isValidInstanceId(instanceId))
+            throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        Objects.requireNonNull(factory, "Factory cannot be null.");
+
+        checkFactoryCreationsAllowed();
+
+        I instance = findInstance(key, instanceId);
+        if(instance != null)
+            return instance;
+
+        return obtainInstance(key, instanceId, id -> toStored(key, id, factory.apply(first, second)));
+    }
+
+    public <A, B, C> I getInstanceWith(@NotNull K key, int instanceId, @NotNull TriFunction<? super A, ? super B, ? super C, ? extends I> factory, A first, B second, C third)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        if(!isValidInstanceId(instanceId))
+            throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        Objects.requireNonNull(factory, "Factory cannot be null.");
 
-        return innerMap.containsKey(instanceId);
+        checkFactoryCreationsAllowed();
+
+        I instance = findInstance(key, instanceId);
+        if(instance != null)
+            return instance;
+
+        return obtainInstance(key, instanceId, id -> toStored(key, id, factory.apply(first, second, third)));
     }
 
+    @NotNull
+    public I[] getInstances(@NotNull K key, int fromInstanceId, int toInstanceId, @NotNull Object[] parameters) throws RuntimeException
+    {
+        if(fromInstanceId > toInstanceId)
+            throw new IllegalArgumentException("FromInstanceId cannot be greater than toInstanceId.");
 
+        return getInstances(key, IntStream.range(fromInstanceId, toInstanceId).toArray(), parameters);
+    }
 
     @NotNull
-    public static <E> E createInstance(@NotNull Class<E> instanceClazz, @NotNull Object[] parameters) throws RuntimeException
+    public I[] getInstances(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] parameters) throws RuntimeException
     {
-        Objects.requireNonNull(instanceClazz, "InstanceClazz cannot be null.");
+        Objects.requireNonNull(key, "Key cannot be null.");
+        Objects.requireNonNull(instanceIds, "InstanceIds cannot be null.");
         Objects.requireNonNull(parameters, "Parameters cannot be null.");
 
-        try
+        for(int instanceId : instanceIds)
+            if(!isValidInstanceId(instanceId))
+                throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        I[] result = (I[]) Array.newInstance(instanceClazz, instanceIds.length);
+
+        Object[] stored = new Object[instanceIds.length];
+        instances.getAll(key, instanceIds, stored);
+
+        int[] missing = new int[instanceIds.length];
+        int missingCount = 0;
+        for(int i = 0; i < instanceIds.length; i++)
         {
-            Constructor<E> constructor = findMatchingConstructor(instanceClazz, parameters);
-            constructor.setAccessible(true);
+            I instance = null;
+            if(stored[i] != null && !(stored[i] instanceof PendingInstance<?>))
+                instance = policy == null ? (I) stored[i] : policy.read((InstanceEntry<K, I>) stored[i]);
 
-            return constructor.newInstance(parameters);
+            if(instance == null)
+                missing[missingCount++] = i;
+            else
+                result[i] = instance;
+        }
 
-        }catch(Exception e)
+        if(stats != null)
         {
-            throw new RuntimeException(e);
+            for(int i = 0; i < missingCount; i++)
+                stats.recordMiss();
+            for(int i = missingCount; i < instanceIds.length; i++)
+                stats.recordHit();
+        }
+
+        if(missingCount == 0)
+            return result;
+
+        ConstructorFactory factory = generatedOrMatchingFactory(parameters);
+        if(missingCount == 1)
+        {
+            result[missing[0]] = createAndObtainInstance(key, instanceIds[missing[0]], factory, parameters);
+            return result;
+        }
+
+        CompletableFuture<?>[] creations = new CompletableFuture<?>[missingCount];
+        for(int i = 0; i < missingCount; i++)
+        {
+            int index = missing[i];
+            creations[i] = CompletableFuture.runAsync(() -> result[index] = createAndObtainInstance(key, instanceIds[index], factory, parameters), executor);
+        }
+
+        try
+        {
+            CompletableFuture.allOf(creations).join();
+
+        }catch(CompletionException e)
+        {
+            if(e.getCause() instanceof RuntimeException cause)
+                throw cause;
+
+            throw e;
         }
+
+        return result;
     }
 
     @NotNull
-    public static <E> E createInstance(@NotNull Constructor<E> constructor, @NotNull Object[] parameters) throws RuntimeException
+    public PrewarmResult<K> prewarm(@NotNull Collection<? extends K> keys, int fromInstanceId, int toInstanceId, @NotNull Object[] parameters) throws RuntimeException
     {
-        Objects.requireNonNull(constructor, "Constructor cannot be null.");
+        return prewarm(keys, fromInstanceId, toInstanceId, parameters, (completedCount, totalCount) -> {});
+    }
+
+    @NotNull
+    public PrewarmResult<K> prewarm(@NotNull Collection<? extends K> keys, int fromInstanceId, int toInstanceId, @NotNull Object[] parameters, @NotNull PrewarmListener listener) throws RuntimeException
+    {
+        Objects.requireNonNull(keys, "Keys cannot be null.");
         Objects.requireNonNull(parameters, "Parameters cannot be null.");
+        Objects.requireNonNull(listener, "Listener cannot be null.");
+
+        if(!isValidInstanceId(fromInstanceId))
+            throw new IllegalArgumentException("FromInstanceId cannot be smaller than 0.");
+
+        if(fromInstanceId > toInstanceId)
+            throw new IllegalArgumentException("FromInstanceId cannot be greater than toInstanceId.");
+
+        List<K> keyList = new ArrayList<>(keys.size());
+        for(K key : keys)
+            keyList.add(Objects.requireNonNull(key, "Key cannot be null."));
+
+        long totalCount = (long) keyList.size() * (toInstanceId - fromInstanceId);
+        if(totalCount == 0)
+            return new PrewarmResult<>(0, 0, 0, List.of());
+
+        ConstructorFactory factory = generatedOrMatchingFactory(parameters);
+
+        AtomicLong completedCount = new AtomicLong();
+        LongAdder createdCount = new LongAdder();
+        LongAdder existingCount = new LongAdder();
+        ConcurrentLinkedQueue<PrewarmResult.Failure<K>> failures = new ConcurrentLinkedQueue<>();
+
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for(K key : keyList)
+        {
+            for(long start = fromInstanceId; start < toInstanceId; start += PREWARM_BATCH_SIZE)
+            {
+                int batchStart = (int) start;
+                int batchEnd = (int) Math.min(start + PREWARM_BATCH_SIZE, toInstanceId);
+
+                batches.add(CompletableFuture.runAsync(() ->
+                {
+                    for(int instanceId = batchStart; instanceId < batchEnd; instanceId++)
+                    {
+                        if(existsInstance(key, instanceId))
+                        {
+                            existingCount.increment();
+                        }else
+                        {
+                            try
+                            {
+                                createAndObtainInstance(key, instanceId, factory, parameters);
+                                createdCount.increment();
+
+                            }catch(RuntimeException e)
+                            {
+                                failures.add(new PrewarmResult.Failure<>(key, instanceId, e));
+                            }
+                        }
+
+                        listener.onProgress(completedCount.incrementAndGet(), totalCount);
+                    }
+                }, executor));
+            }
+        }
 
         try
         {
-            constructor.setAccessible(true);
-            return constructor.newInstance(parameters);
+            CompletableFuture.allOf(batches.toArray(CompletableFuture<?>[]::new)).join();
 
-        }catch(Exception e)
+        }catch(CompletionException e)
         {
-            throw new RuntimeException(e);
+            if(e.getCause() instanceof RuntimeException cause)
+                throw cause;
+
+            throw e;
         }
+
+        return new PrewarmResult<>(totalCount, createdCount.sum(), existingCount.sum(), List.copyOf(failures));
     }
 
     @NotNull
-    public static <E> Constructor<E> findMatchingConstructor(@NotNull Class<E> instanceClazz, @NotNull Object[] parameters) throws RuntimeException
+    private I createAndObtainInstance(@NotNull K key, int instanceId, @Nullable ConstructorFactory factory, @NotNull Object[] parameters) throws RuntimeException
     {
-        Objects.requireNonNull(instanceClazz, "InstanceClazz cannot be null.");
-        Objects.requireNonNull(parameters ,"Parameters cannot be null.");
+        if(factory == null)
+            return obtainInstance(key, instanceId, creationFunction(key, parameters));
 
-        Constructor<?>[] declaredConstructors = null;
-        try
+        return obtainInstance(key, instanceId, id ->
         {
-            declaredConstructors = instanceClazz.getDeclaredConstructors();
+            I instance;
+            try
+            {
+                instance = (I) factory.newInstance(parameters);
 
-        }catch(Exception e)
+            }catch(ReflectiveOperationException e)
+            {
+                throw new RuntimeException(e);
+            }
+
+            return toStored(key, id, instance, parameters);
+        });
+    }
+
+    @NotNull
+    private IntFunction<Object> creationFunction(@NotNull K key, @NotNull Object[] parameters)
+    {
+        return id -> toStored(key, id, construct(instanceClazz, parameters), parameters);
+    }
+
+    private void checkFactoryCreationsAllowed() throws IllegalStateException
+    {
+        // The journal replays creations from their parameters, so one made by a factory could not be recovered.
+        if(journal != null)
+            throw new IllegalStateException("Instances cannot be created by a factory while a journal is configured.");
+    }
+
+    @Nullable("if a generated factory exists for the instance class")
+    private ConstructorFactory generatedOrMatchingFactory(@NotNull Object[] parameters) throws RuntimeException
+    {
+        if(GeneratedFactories.of(instanceClazz) != null)
+            return null;
+
+        return findMatchingFactory(instanceClazz, parameters);
+    }
+
+    @Nullable
+    private I findInstance(@NotNull K key, int instanceId)
+    {
+        Object stored = instances.get(key, instanceId);
+
+        I instance = null;
+        if(stored != null && !(stored instanceof PendingInstance<?>))
+            instance = policy == null ? (I) stored : policy.read((InstanceEntry<K, I>) stored);
+
+        if(stats != null)
         {
-            throw new RuntimeException(e);
+            if(instance == null)
+                stats.recordMiss();
+            else
+                stats.recordHit();
         }
 
-        for(Constructor<?> declaredConstructor : declaredConstructors)
+        return instance;
+    }
+
+    @NotNull
+    private Object toStored(@NotNull K key, int instanceId, I instance)
+    {
+        Objects.requireNonNull(instance, "Instance cannot be null.");
+
+        if(stats != null)
+            stats.recordCreationSuccess();
+
+        return policy == null ? instance : policy.newEntry(key, instanceId, instance);
+    }
+
+    @NotNull
+    private Object toStored(@NotNull K key, int instanceId, I instance, @NotNull Object[] parameters)
+    {
+        Objects.requireNonNull(instance, "Instance cannot be null.");
+
+        // Creations are journaled before they become visible, so a later removal is always recorded after them.
+        InstanceJournal<K> journal = this.journal;
+        if(journal != null)
         {
-            Class<?>[] declaredParameterTypes = declaredConstructor.getParameterTypes();
-            if(declaredParameterTypes.length != parameters.length)
-                continue;
+            try
+            {
+                journal.created(key, instanceId, parameters);
 
-            boolean match = true;
-            for(int i = 0; i < declaredParameterTypes.length; i++)
+            }catch(RuntimeException e)
             {
-                if(!primitiveToWrapper(declaredParameterTypes[i]).isInstance(parameters[i]))
-                {
-                    match = false;
+                discardInstance(instance);
+                throw e;
+            }
+        }
+
+        return toStored(key, instanceId, instance);
+    }
+
+    @NotNull
+    private I obtainInstance(@NotNull K key, int instanceId, @NotNull IntFunction<Object> mappingFunction)
+    {
+        PendingInstance<I> pending = null;
+        while(true)
+        {
+            Object stored = instances.get(key, instanceId);
+            if(stored == null)
+            {
+                if(pending == null)
+                    pending = new PendingInstance<>();
+
+                PendingInstance<I> placeholder = pending;
+
+                stored = instances.computeIfAbsent(key, instanceId, id -> placeholder);
+                if(stored == pending)
                     break;
-                }
             }
 
-            if(match)
-                return (Constructor<E>) declaredConstructor;
+            if(stored instanceof PendingInstance<?> other)
+            {
+                other.await();
+
+                CreationBackoffException backoffFailure = other.backoffFailure();
+                if(backoffFailure != null)
+                    throw backoffFailure;
+
+                instances.remove(key, instanceId, other);
+                continue;
+            }
+
+            I instance = acquireStored(stored);
+            if(instance != null)
+                return instance;
+        }
+
+        return completePending(key, instanceId, mappingFunction, pending);
+    }
+
+    @NotNull
+    private I completePending(@NotNull K key, int instanceId, @NotNull IntFunction<Object> mappingFunction, @NotNull PendingInstance<I> pending)
+    {
+        if(InstanceCreationEvent.isRecording())
+            mappingFunction = InstanceCreationEvent.timed(key, instanceClazz, mappingFunction);
+
+        pending.claim();
+
+        Object value;
+        try
+        {
+            value = mappingFunction.apply(instanceId);
+
+        }catch(Throwable e)
+        {
+            // Checked exceptions thrown sneakily by a factory must release the placeholder as well.
+            if(stats != null)
+                stats.recordCreationFailure();
+
+            if(failureBackoffNanos > 0)
+            {
+                pending.backOff(e, failureBackoffNanos);
+                scheduleBackoffExpiry(key, instanceId, pending);
+            }else
+            {
+                instances.remove(key, instanceId, pending);
+                pending.completeExceptionally(e);
+            }
+
+            throw e;
+        }
+
+        I instance = policy == null ? (I) value : ((InstanceEntry<K, I>) value).value();
+        if(!instances.replace(key, instanceId, pending, value))
+        {
+            I obtained = installInstance(key, instanceId, value);
+            if(obtained != instance)
+                discardInstance(instance);
+
+            pending.complete(obtained);
+            return obtained;
+        }
+
+        if(stats != null)
+            stats.recordInsertion();
+
+        if(policy != null)
+        {
+            InstanceEntry<K, I> entry = (InstanceEntry<K, I>) value;
+            if(policy.afterCreate(entry) == null)
+                policy.expire(entry);
+        }
+
+        pending.complete(instance);
+        return instance;
+    }
+
+    @NotNull
+    private InstanceJournal<K> openJournal(@NotNull Path path, @NotNull Codec<K> keyCodec, @NotNull Codec<Object[]> parametersCodec, @Nullable("if failures go to the uncaught exception handler") JournalFailureListener failureListener, @NotNull Executor writer, int queueCapacity) throws RuntimeException
+    {
+        if(failureListener == null)
+        {
+            failureListener = failure ->
+            {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, failure);
+            };
         }
 
-        throw new IllegalArgumentException
-                        (
-                        "No suitable constructor could be found in the class "
-                        + instanceClazz.getName()
-                        + " with the specified arguments"
-                        + Arrays.stream(parameters)
-                        .map(o -> o == null ? null : o.getClass())
-                        .map(c -> c == null ? "null" : c.getName())
-                        .collect(Collectors.joining(",", "(", ")"))
-                        );
+        try
+        {
+            return InstanceJournal.open(path, keyCodec, parametersCodec, failureListener, writer, queueCapacity, new InstanceJournal.Replay<>()
+            {
+
+                @Override
+                public void created(@NotNull K key, int instanceId, @NotNull Object[] parameters)
+                {
+                    replayCreation(key, instanceId, parameters);
+                }
+
+                @Override
+                public void removed(@NotNull K key, int instanceId)
+                {
+                    unregisterInstance(key, instanceId);
+                }
+
+                @Override
+                public void removedKey(@NotNull K key)
+                {
+                    unregisterAll(key);
+                }
+
+            });
+
+        }catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void replayCreation(@NotNull K key, int instanceId, @NotNull Object[] parameters)
+    {
+        if(existsInstance(key, instanceId))
+            return;
+
+        try
+        {
+            obtainInstance(key, instanceId, creationFunction(key, parameters));
+
+        }catch(RuntimeException ignored)
+        {
+            // The failure is recorded in the stats and the record stays in the journal for the next replay.
+        }
+    }
+
+    private boolean restoreInstance(@NotNull K key, int instanceId, @NotNull I instance)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        Objects.requireNonNull(instance, "Instance cannot be null.");
+
+        if(!isValidInstanceId(instanceId))
+            throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        Object value = policy == null ? instance : policy.newEntry(key, instanceId, instance);
+        if(instances.computeIfAbsent(key, instanceId, id -> value) != value)
+        {
+            discardInstance(instance);
+            return false;
+        }
+
+        if(stats != null)
+            stats.recordInsertion();
+
+        if(policy != null)
+        {
+            InstanceEntry<K, I> entry = (InstanceEntry<K, I>) value;
+            if(policy.afterCreate(entry) == null)
+                policy.expire(entry);
+        }
+
+        return true;
+    }
+
+    @NotNull
+    private I installInstance(@NotNull K key, int instanceId, @NotNull Object value)
+    {
+        while(true)
+        {
+            Object stored = instances.computeIfAbsent(key, instanceId, id -> value);
+            if(stored instanceof PendingInstance<?> pending)
+            {
+                pending.await();
+                instances.remove(key, instanceId, pending);
+                continue;
+            }
+
+            if(stored == value && stats != null)
+                stats.recordInsertion();
+
+            I instance = acquireStored(stored);
+            if(instance != null)
+                return instance;
+        }
+    }
+
+    private void scheduleBackoffExpiry(@NotNull K key, int instanceId, @NotNull PendingInstance<I> pending)
+    {
+        Executor delayed = CompletableFuture.delayedExecutor(failureBackoffNanos, TimeUnit.NANOSECONDS, cleanupExecutor);
+        delayed.execute(() -> instances.remove(key, instanceId, pending));
+    }
+
+    @Nullable("if no instance is registered")
+    private Object removeRegistered(@NotNull K key, int instanceId)
+    {
+        while(true)
+        {
+            Object stored = instances.get(key, instanceId);
+            if(stored == null)
+                return null;
+
+            // A creation in flight is awaited, so its instance is removed instead of being installed afterwards.
+            if(stored instanceof PendingInstance<?> pending)
+            {
+                if(!awaitCreation(pending))
+                    return null;
+
+                continue;
+            }
+
+            if(instances.remove(key, instanceId, stored))
+                return stored;
+        }
+    }
+
+    private void awaitCreations(@NotNull K key, @NotNull int[] instanceIds)
+    {
+        Object[] stored = new Object[instanceIds.length];
+        instances.getAll(key, instanceIds, stored);
+        for(Object value : stored)
+            if(value instanceof PendingInstance<?> pending)
+                awaitCreation(pending);
+    }
+
+    private void awaitCreations()
+    {
+        instances.spliterator((key, instanceId, stored) -> stored instanceof PendingInstance<?> pending ? pending : null)
+                .forEachRemaining(InstanceManager::awaitCreation);
+    }
+
+    private void awaitCreations(@NotNull K key)
+    {
+        instances.spliterator(key, (k, instanceId, stored) -> stored instanceof PendingInstance<?> pending ? pending : null)
+                .forEachRemaining(InstanceManager::awaitCreation);
+    }
+
+    private static boolean awaitCreation(@NotNull PendingInstance<?> pending)
+    {
+        // Failed creations are not registered, and a factory cannot wait for its own creation.
+        if(pending.isCompletedExceptionally() || pending.isCreatedByCurrentThread())
+            return false;
+
+        pending.await();
+        return !pending.isCompletedExceptionally();
+    }
+
+    @Nullable("if the stored instance expired or was collected")
+    private I acquireStored(@NotNull Object stored)
+    {
+        if(policy == null)
+            return (I) stored;
+
+        InstanceEntry<K, I> entry = (InstanceEntry<K, I>) stored;
+
+        I instance = policy.afterCreate(entry);
+        if(instance == null)
+            policy.expire(entry);
+
+        return instance;
+    }
+
+    @Nullable("if the stored value is pending, expired or collected")
+    private I peekStored(@NotNull Object stored)
+    {
+        if(stored instanceof PendingInstance<?>)
+            return null;
+
+        if(policy == null)
+            return (I) stored;
+
+        InstanceEntry<K, I> entry = (InstanceEntry<K, I>) stored;
+        return policy.isPresent(entry) ? entry.value() : null;
+    }
+
+    @Nullable("if the stored value is pending, expired or collected")
+    private RegisteredInstance<K, I> toRegistered(@NotNull K key, int instanceId, @NotNull Object stored)
+    {
+        I instance = peekStored(stored);
+        return instance == null ? null : new RegisteredInstance<>(key, instanceId, instance);
+    }
+
+    @NotNull
+    public CompletableFuture<I> getInstanceAsync(@NotNull K key, int instanceId, @NotNull Object[] parameters)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        if(!isValidInstanceId(instanceId))
+            throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        Objects.requireNonNull(parameters, "Parameters cannot be null.");
+
+        PendingInstance<I> pending = null;
+        while(true)
+        {
+            Object stored = instances.get(key, instanceId);
+            if(stored == null)
+            {
+                if(pending == null)
+                    pending = new PendingInstance<>();
+
+                PendingInstance<I> placeholder = pending;
+
+                stored = instances.computeIfAbsent(key, instanceId, id -> placeholder);
+                if(stored == pending)
+                {
+                    if(stats != null)
+                        stats.recordMiss();
+
+                    break;
+                }
+            }
+
+            if(stored instanceof PendingInstance<?> other)
+            {
+                if(!other.isCompletedExceptionally() || other.backoffFailure() != null)
+                {
+                    if(stats != null)
+                        stats.recordHit();
+
+                    // Callers get a dependent future, so none of them can complete or cancel the shared creation.
+                    return ((PendingInstance<I>) other).copy();
+                }
+
+                instances.remove(key, instanceId, other);
+                continue;
+            }
+
+            I instance = acquireStored(stored);
+            if(instance != null)
+            {
+                if(stats != null)
+                    stats.recordHit();
+
+                return CompletableFuture.completedFuture(instance);
+            }
+        }
+
+        PendingInstance<I> created = pending;
+        try
+        {
+            executor.execute(() -> completeInstance(key, instanceId, parameters, created));
+
+        }catch(RejectedExecutionException e)
+        {
+            instances.remove(key, instanceId, created);
+            created.completeExceptionally(e);
+        }
+
+        return created.copy();
+    }
+
+    public boolean unregisterInstance(@NotNull K key, int instanceId)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        if(!isValidInstanceId(instanceId))
+            throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        // A removal that can no longer be journaled is rejected before it happens.
+        InstanceJournal<K> journal = this.journal;
+        if(journal != null)
+            journal.checkWritable();
+
+        Object removed = removeRegistered(key, instanceId);
+        if(removed == null)
+            return false;
+
+        try
+        {
+            if(journal != null)
+                journal.removed(key, instanceId);
+
+        }finally
+        {
+            afterUnregister(key, instanceId, removed);
+        }
+
+        return true;
+    }
+
+    public int unregisterInstances(@NotNull K key, int fromInstanceId, int toInstanceId)
+    {
+        if(fromInstanceId > toInstanceId)
+            throw new IllegalArgumentException("FromInstanceId cannot be greater than toInstanceId.");
+
+        return unregisterInstances(key, IntStream.range(fromInstanceId, toInstanceId).toArray());
+    }
+
+    public int unregisterInstances(@NotNull K key, @NotNull int[] instanceIds)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        Objects.requireNonNull(instanceIds, "InstanceIds cannot be null.");
+
+        for(int instanceId : instanceIds)
+            if(!isValidInstanceId(instanceId))
+                throw new IllegalArgumentException("InstanceId cannot be smaller than 0.");
+
+        InstanceJournal<K> journal = this.journal;
+        if(journal != null)
+            journal.checkWritable();
+
+        awaitCreations(key, instanceIds);
+
+        Object[] removed = new Object[instanceIds.length];
+        if(instances.removeAll(key, instanceIds, removed) == 0)
+            return 0;
+
+        int count = 0;
+        try
+        {
+            if(journal != null)
+            {
+                for(int i = 0; i < removed.length; i++)
+                    if(removed[i] != null)
+                        journal.removed(key, instanceIds[i]);
+            }
+
+        }finally
+        {
+            for(int i = 0; i < removed.length; i++)
+            {
+                if(removed[i] == null)
+                    continue;
+
+                afterUnregister(key, instanceIds[i], removed[i]);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public int unregisterAll(@NotNull K key)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        InstanceJournal<K> journal = this.journal;
+        if(journal != null)
+            journal.checkWritable();
+
+        awaitCreations(key);
+
+        RemovedInstances<Object> removed = instances.removeKey(key);
+        if(removed.size() == 0)
+            return 0;
+
+        try
+        {
+            if(journal != null)
+                journal.removedKey(key);
+
+        }finally
+        {
+            for(int i = 0; i < removed.size(); i++)
+                afterUnregister(key, removed.instanceId(i), removed.value(i));
+        }
+
+        return removed.size();
+    }
+
+    public void closeAll() throws RuntimeException
+    {
+        ConcurrentLinkedQueue<Exception> failures = new ConcurrentLinkedQueue<>();
+
+        // One pass over the whole store, so teardown does not rescan it per key.
+        awaitCreations();
+        instances.drain((key, instanceId, value) ->
+        {
+            I instance;
+            if(policy == null)
+            {
+                instance = (I) value;
+            }else
+            {
+                InstanceEntry<K, I> entry = (InstanceEntry<K, I>) value;
+
+                policy.afterRemove(entry);
+                instance = entry.value();
+            }
+
+            if(stats != null)
+                stats.recordRemoval();
+
+            try
+            {
+                handleRemoval(key, instanceId, instance, RemovalCause.EXPLICIT, true);
+
+            }catch(Exception e)
+            {
+                failures.add(e);
+            }
+        });
+
+        // Closed once pending creations are installed, so their records are not dropped. Draining is not journaled.
+        InstanceJournal<K> journal = this.journal;
+        try
+        {
+            if(journal != null)
+                journal.close();
+
+        }finally
+        {
+            if(statsObjectName != null)
+                unregisterStatsMBean(statsObjectName);
+        }
+
+        if(failures.isEmpty())
+            return;
+
+        RuntimeException exception = new RuntimeException("Failed to close " + failures.size() + " instances.");
+        failures.forEach(exception::addSuppressed);
+
+        throw exception;
+    }
+
+    public boolean existsInstance(@Nullable K key, int instanceId)
+    {
+        if(key == null || !isValidInstanceId(instanceId))
+            return false;
+
+        if(lookupFilter != null && !lookupFilter.mightContain(key, instanceId))
+            return false;
+
+        Object stored = instances.get(key, instanceId);
+        if(stored == null || stored instanceof PendingInstance<?>)
+            return false;
+
+        return policy == null || policy.isPresent((InstanceEntry<K, I>) stored);
+    }
+
+    @NotNull
+    public Set<K> keys()
+    {
+        return Collections.unmodifiableSet(instances.keys());
+    }
+
+    @NotNull
+    public Stream<RegisteredInstance<K, I>> instances(@NotNull K key)
+    {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        return StreamSupport.stream(instances.spliterator(key, this::toRegistered), false);
+    }
+
+    @NotNull
+    public Stream<RegisteredInstance<K, I>> stream()
+    {
+        return StreamSupport.stream(instances.spliterator(this::toRegistered), false);
+    }
+
+    @NotNull
+    public Stream<RegisteredInstance<K, I>> parallelStream()
+    {
+        return StreamSupport.stream(instances.spliterator(this::toRegistered), true);
+    }
+
+    public void forEach(@NotNull InstanceConsumer<? super K, ? super I> action)
+    {
+        Objects.requireNonNull(action, "Action cannot be null.");
+
+        // The mapper hands each instance to the action itself, so the traversal allocates no triples.
+        instances.spliterator((key, instanceId, stored) ->
+        {
+            I instance = peekStored(stored);
+            if(instance != null)
+                action.accept(key, instanceId, instance);
+
+            return null;
+        }).forEachRemaining(ignored -> {});
+    }
+
+    public long snapshot(@NotNull Path path, @NotNull Codec<? super K> keyCodec, @NotNull Codec<? super I> instanceCodec) throws RuntimeException
+    {
+        Objects.requireNonNull(path, "Path cannot be null.");
+        Objects.requireNonNull(keyCodec, "KeyCodec cannot be null.");
+        Objects.requireNonNull(instanceCodec, "InstanceCodec cannot be null.");
+
+        InstanceJournal<K> journal = this.journal;
+        try
+        {
+            if(journal == null)
+                return SnapshotFile.write(path, instances.spliterator(this::toRegistered), keyCodec, instanceCodec, executor);
+
+            // A creation journaled before the roll may still be pending, so the traversal starts once those
+            // creations are installed. The rolled segment can then be dropped when the snapshot is in place.
+            synchronized(journal)
+            {
+                journal.roll();
+                awaitCreations();
+
+                long writtenCount = SnapshotFile.write(path, instances.spliterator(this::toRegistered), keyCodec, instanceCodec, executor);
+                journal.dropPrevious();
+
+                return writtenCount;
+            }
+
+        }catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void flushJournal() throws RuntimeException
+    {
+        InstanceJournal<K> journal = this.journal;
+        if(journal != null)
+            journal.sync();
+    }
+
+    public long restore(@NotNull Path path, @NotNull Codec<? extends K> keyCodec, @NotNull Codec<? extends I> instanceCodec) throws RuntimeException
+    {
+        Objects.requireNonNull(path, "Path cannot be null.");
+        Objects.requireNonNull(keyCodec, "KeyCodec cannot be null.");
+        Objects.requireNonNull(instanceCodec, "InstanceCodec cannot be null.");
+
+        LongAdder restoredCount = new LongAdder();
+        try
+        {
+            SnapshotFile.<K, I>read(path, keyCodec, instanceCodec, executor, (key, instanceId, instance) ->
+            {
+                if(restoreInstance(key, instanceId, instance))
+                    restoredCount.increment();
+            });
+
+        }catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        return restoredCount.sum();
+    }
+
+    public void cleanUp()
+    {
+        if(policy != null)
+            policy.cleanUp();
+    }
+
+    @NotNull
+    public InstanceStats stats()
+    {
+        return stats == null ? new InstanceStats(0, 0, 0, 0, 0, 0) : stats.snapshot();
+    }
+
+    @NotNull
+    public List<ShardStats> shardStats()
+    {
+        InstanceStore<K, Object> store = lookupFilter == null ? instances : lookupFilter.delegate();
+        if(store instanceof ShardedInstanceStore<K, Object> sharded)
+            return sharded.shardStats();
+
+        return List.of();
+    }
+
+    @NotNull
+    private static ObjectName registerStatsMBean(@NotNull String name, @NotNull StatsCounter stats) throws RuntimeException
+    {
+        try
+        {
+            ObjectName objectName = new ObjectName("de.fiertubehd:type=InstanceManager,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName);
+
+            return objectName;
+
+        }catch(JMException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void unregisterStatsMBean(@NotNull ObjectName objectName)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+
+        }catch(JMException ignored)
+        {
+        }
+    }
+
+    private void afterUnregister(@NotNull K key, int instanceId, @NotNull Object removed)
+    {
+        I instance;
+        if(policy == null)
+        {
+            instance = (I) removed;
+        }else
+        {
+            InstanceEntry<K, I> entry = (InstanceEntry<K, I>) removed;
+
+            policy.afterRemove(entry);
+            instance = entry.value();
+        }
+
+        if(stats != null)
+            stats.recordRemoval();
+
+        if(observesRemovals())
+            dispatchRemoval(key, instanceId, instance, RemovalCause.EXPLICIT);
+    }
+
+    private void afterEviction(@NotNull K key, int instanceId, @Nullable I instance, @NotNull RemovalCause cause)
+    {
+        if(stats != null)
+            stats.recordRemoval();
+
+        if(observesRemovals())
+            dispatchRemoval(key, instanceId, instance, cause);
+    }
+
+    private boolean observesRemovals()
+    {
+        return removalListener != null || closeOnRemoval;
+    }
+
+    private void dispatchRemoval(@NotNull K key, int instanceId, @Nullable I instance, @NotNull RemovalCause cause)
+    {
+        runCleanup(() ->
+        {
+            handleRemoval(key, instanceId, instance, cause, closeOnRemoval);
+            return null;
+        });
+    }
+
+    private void discardInstance(@NotNull I instance)
+    {
+        if(!closeOnRemoval || !(instance instanceof AutoCloseable closeable))
+            return;
+
+        runCleanup(() ->
+        {
+            closeable.close();
+            return null;
+        });
+    }
+
+    private void runCleanup(@NotNull Callable<?> cleanup)
+    {
+        Runnable task = () ->
+        {
+            try
+            {
+                cleanup.call();
+
+            }catch(Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        };
+
+        try
+        {
+            cleanupExecutor.execute(task);
+
+        }catch(RejectedExecutionException e)
+        {
+            task.run();
+        }
+    }
+
+    private void handleRemoval(@NotNull K key, int instanceId, @Nullable I instance, @NotNull RemovalCause cause, boolean close) throws Exception
+    {
+        Exception failure = null;
+        if(removalListener != null)
+        {
+            try
+            {
+                removalListener.onRemoval(key, instanceId, instance, cause);
+
+            }catch(Exception e)
+            {
+                failure = e;
+            }
+        }
+
+        if(close && instance instanceof AutoCloseable closeable)
+        {
+            try
+            {
+                closeable.close();
+
+            }catch(Exception e)
+            {
+                if(failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+
+        if(failure != null)
+            throw failure;
+    }
+
+    private void completeInstance(@NotNull K key, int instanceId, @NotNull Object[] parameters, @NotNull PendingInstance<I> pending)
+    {
+        try
+        {
+            completePending(key, instanceId, creationFunction(key, parameters), pending);
+
+        }catch(Throwable ignored)
+        {
+            // The failure is delivered through the pending instance.
+        }
+    }
+
+
+
+    // Throws an IllegalArgumentException if no constructor matches the parameters, and a RuntimeException caused by
+    // the InvocationTargetException if the matching constructor throws.
+    @NotNull
+    public static <E> E createInstance(@NotNull Class<E> instanceClazz, @NotNull Object[] parameters) throws RuntimeException
+    {
+        Objects.requireNonNull(instanceClazz, "InstanceClazz cannot be null.");
+        Objects.requireNonNull(parameters, "Parameters cannot be null.");
+
+        try
+        {
+            return construct(instanceClazz, parameters);
+
+        }catch(IllegalArgumentException e)
+        {
+            throw ConstructorCache.withStackTrace(e);
+        }
+    }
+
+    @NotNull
+    public static <E> E createInstance(@NotNull Constructor<E> constructor, @NotNull Object[] parameters) throws RuntimeException
+    {
+        Objects.requireNonNull(constructor, "Constructor cannot be null.");
+        Objects.requireNonNull(parameters, "Parameters cannot be null.");
+
+        try
+        {
+            ConstructorFactory factory = ConstructorCache.of(constructor.getDeclaringClass()).factoryOf(constructor);
+            if(factory == null || !factory.accepts(parameters))
+            {
+                constructor.setAccessible(true);
+                return constructor.newInstance(parameters);
+            }
+
+            return (E) factory.newInstance(parameters);
+
+        }catch(Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Throws an IllegalArgumentException if no constructor matches the parameters.
+    @NotNull
+    public static <E> Constructor<E> findMatchingConstructor(@NotNull Class<E> instanceClazz, @NotNull Object[] parameters) throws RuntimeException
+    {
+        Objects.requireNonNull(instanceClazz, "InstanceClazz cannot be null.");
+        Objects.requireNonNull(parameters ,"Parameters cannot be null.");
+
+        try
+        {
+            return (Constructor<E>) findMatchingFactory(instanceClazz, parameters).constructor();
+
+        }catch(IllegalArgumentException e)
+        {
+            throw ConstructorCache.withStackTrace(e);
+        }
+    }
+
+    // Leaves cached resolution failures stackless, so repeated failing creations stay cheap.
+    @NotNull
+    private static <E> E construct(@NotNull Class<E> instanceClazz, @NotNull Object[] parameters) throws RuntimeException
+    {
+        try
+        {
+            return instantiate(instanceClazz, parameters);
+
+        }catch(ReflectiveOperationException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    private static <E> E instantiate(@NotNull Class<E> instanceClazz, @NotNull Object[] parameters) throws ReflectiveOperationException
+    {
+        InstanceFactory<E> generated = GeneratedFactories.of(instanceClazz);
+        if(generated != null)
+        {
+            E instance;
+            try
+            {
+                instance = generated.newInstance(parameters);
+
+            }catch(Throwable t)
+            {
+                throw new InvocationTargetException(t);
+            }
+
+            if(instance != null)
+                return instance;
+        }
+
+        return (E) findMatchingFactory(instanceClazz, parameters).newInstance(parameters);
+    }
+
+    @NotNull
+    private static ConstructorFactory findMatchingFactory(@NotNull Class<?> instanceClazz, @NotNull Object[] parameters) throws RuntimeException
+    {
+        ConstructorCache cache = ConstructorCache.of(instanceClazz);
+
+        ConstructorFactory factory = cache.resolve(parameters);
+        if(factory != null)
+            return factory;
+
+        throw cache.unresolved(parameters);
     }
 
 
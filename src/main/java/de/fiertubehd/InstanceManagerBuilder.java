@@ -0,0 +1,286 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+public final class InstanceManagerBuilder<K, I>
+{
+
+    final Class<I> instanceClazz;
+
+    StorageMode storageMode = StorageMode.NESTED;
+    int shardCount = Runtime.getRuntime().availableProcessors();
+    long lookupFilterSize;
+    EvictionPolicy evictionPolicy = EvictionPolicy.TINY_LFU;
+    ValueStrength valueStrength = ValueStrength.STRONG;
+    long maximumSize = Long.MAX_VALUE;
+    int maximumSizePerKey = Integer.MAX_VALUE;
+    long expireAfterWriteNanos = -1;
+    long expireAfterAccessNanos = -1;
+    long failureBackoffNanos = -1;
+    Executor executor = Thread::startVirtualThread;
+    Executor cleanupExecutor = Thread::startVirtualThread;
+    RemovalListener<? super K, ? super I> removalListener;
+    boolean closeOnRemoval;
+    boolean recordStats;
+    String statsMBeanName;
+    Path snapshotPath;
+    Codec<K> snapshotKeyCodec;
+    Codec<? extends I> snapshotInstanceCodec;
+    Path journalPath;
+    Codec<K> journalKeyCodec;
+    Codec<Object[]> journalParametersCodec;
+    JournalFailureListener journalFailureListener;
+    Executor journalExecutor = InstanceJournal.WRITERS;
+    int journalQueueCapacity = InstanceJournal.DEFAULT_QUEUE_CAPACITY;
+
+    InstanceManagerBuilder(@NotNull Class<I> instanceClazz)
+    {
+        Objects.requireNonNull(instanceClazz, "InstanceClazz cannot be null.");
+
+        this.instanceClazz = instanceClazz;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> storageMode(@NotNull StorageMode storageMode)
+    {
+        Objects.requireNonNull(storageMode, "StorageMode cannot be null.");
+
+        this.storageMode = storageMode;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> shardCount(int shardCount)
+    {
+        if(shardCount < 1)
+            throw new IllegalArgumentException("ShardCount cannot be smaller than 1.");
+
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> lookupFilter(long expectedSize)
+    {
+        if(expectedSize < 1)
+            throw new IllegalArgumentException("ExpectedSize cannot be smaller than 1.");
+
+        this.lookupFilterSize = expectedSize;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> maximumSize(long maximumSize)
+    {
+        if(maximumSize < 0)
+            throw new IllegalArgumentException("MaximumSize cannot be smaller than 0.");
+
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> maximumSizePerKey(int maximumSizePerKey)
+    {
+        if(maximumSizePerKey < 0)
+            throw new IllegalArgumentException("MaximumSizePerKey cannot be smaller than 0.");
+
+        this.maximumSizePerKey = maximumSizePerKey;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> evictionPolicy(@NotNull EvictionPolicy evictionPolicy)
+    {
+        Objects.requireNonNull(evictionPolicy, "EvictionPolicy cannot be null.");
+
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> valueStrength(@NotNull ValueStrength valueStrength)
+    {
+        Objects.requireNonNull(valueStrength, "ValueStrength cannot be null.");
+
+        this.valueStrength = valueStrength;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> expireAfterWrite(@NotNull Duration duration)
+    {
+        Objects.requireNonNull(duration, "Duration cannot be null.");
+
+        if(duration.isNegative())
+            throw new IllegalArgumentException("ExpireAfterWrite cannot be negative.");
+
+        this.expireAfterWriteNanos = saturatedNanos(duration);
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> expireAfterAccess(@NotNull Duration duration)
+    {
+        Objects.requireNonNull(duration, "Duration cannot be null.");
+
+        if(duration.isNegative())
+            throw new IllegalArgumentException("ExpireAfterAccess cannot be negative.");
+
+        this.expireAfterAccessNanos = saturatedNanos(duration);
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> failureBackoff(@NotNull Duration duration)
+    {
+        Objects.requireNonNull(duration, "Duration cannot be null.");
+
+        if(duration.isNegative())
+            throw new IllegalArgumentException("FailureBackoff cannot be negative.");
+
+        this.failureBackoffNanos = saturatedNanos(duration);
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> executor(@NotNull Executor executor)
+    {
+        Objects.requireNonNull(executor, "Executor cannot be null.");
+
+        this.executor = executor;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> cleanupExecutor(@NotNull Executor cleanupExecutor)
+    {
+        Objects.requireNonNull(cleanupExecutor, "CleanupExecutor cannot be null.");
+
+        this.cleanupExecutor = cleanupExecutor;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> removalListener(@NotNull RemovalListener<? super K, ? super I> removalListener)
+    {
+        Objects.requireNonNull(removalListener, "RemovalListener cannot be null.");
+
+        this.removalListener = removalListener;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> closeOnRemoval(boolean closeOnRemoval)
+    {
+        this.closeOnRemoval = closeOnRemoval;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> recordStats()
+    {
+        this.recordStats = true;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> registerStatsMBean(@NotNull String name)
+    {
+        Objects.requireNonNull(name, "Name cannot be null.");
+
+        this.recordStats = true;
+        this.statsMBeanName = name;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> restoreSnapshot(@NotNull Path path, @NotNull Codec<K> keyCodec, @NotNull Codec<? extends I> instanceCodec)
+    {
+        Objects.requireNonNull(path, "Path cannot be null.");
+        Objects.requireNonNull(keyCodec, "KeyCodec cannot be null.");
+        Objects.requireNonNull(instanceCodec, "InstanceCodec cannot be null.");
+
+        this.snapshotPath = path;
+        this.snapshotKeyCodec = keyCodec;
+        this.snapshotInstanceCodec = instanceCodec;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> journal(@NotNull Path path, @NotNull Codec<K> keyCodec, @NotNull Codec<Object[]> parametersCodec)
+    {
+        Objects.requireNonNull(path, "Path cannot be null.");
+        Objects.requireNonNull(keyCodec, "KeyCodec cannot be null.");
+        Objects.requireNonNull(parametersCodec, "ParametersCodec cannot be null.");
+
+        this.journalPath = path;
+        this.journalKeyCodec = keyCodec;
+        this.journalParametersCodec = parametersCodec;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> journalFailureListener(@NotNull JournalFailureListener journalFailureListener)
+    {
+        Objects.requireNonNull(journalFailureListener, "JournalFailureListener cannot be null.");
+
+        this.journalFailureListener = journalFailureListener;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> journalExecutor(@NotNull Executor journalExecutor)
+    {
+        Objects.requireNonNull(journalExecutor, "JournalExecutor cannot be null.");
+
+        this.journalExecutor = journalExecutor;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManagerBuilder<K, I> journalQueueCapacity(int journalQueueCapacity)
+    {
+        if(journalQueueCapacity < 1)
+            throw new IllegalArgumentException("JournalQueueCapacity cannot be smaller than 1.");
+
+        this.journalQueueCapacity = journalQueueCapacity;
+        return this;
+    }
+
+    @NotNull
+    public InstanceManager<K, I> build() throws RuntimeException
+    {
+        InstanceManager<K, I> manager = new InstanceManager<>(this);
+        manager.recover(this);
+
+        return manager;
+    }
+
+    boolean requiresPolicy()
+    {
+        return maximumSize != Long.MAX_VALUE
+                || maximumSizePerKey != Integer.MAX_VALUE
+                || expireAfterWriteNanos >= 0
+                || expireAfterAccessNanos >= 0
+                || valueStrength != ValueStrength.STRONG;
+    }
+
+    private static long saturatedNanos(@NotNull Duration duration)
+    {
+        try
+        {
+            return Math.min(duration.toNanos(), Long.MAX_VALUE >> 1);
+
+        }catch(ArithmeticException e)
+        {
+            return Long.MAX_VALUE >> 1;
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package de.fiertubehd;
+
+public interface InstanceManagerMXBean
+{
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getCreationSuccessCount();
+
+    long getCreationFailureCount();
+
+    long getRemovalCount();
+
+    long getSize();
+
+}
@@ -0,0 +1,13 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+@FunctionalInterface
+interface InstanceMapper<K, V, R>
+{
+
+    @Nullable("if the stored value should be skipped")
+    R map(@NotNull K key, int instanceId, @NotNull V value);
+
+}
@@ -0,0 +1,312 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+final class InstanceSlots<V>
+{
+
+    private static final int MINIMUM_DENSE_LENGTH = 8;
+    private static final int MAXIMUM_DENSE_LENGTH = 1 << 12;
+
+    private static final AtomicReferenceArray<?> EMPTY = new AtomicReferenceArray<>(0);
+
+    private volatile AtomicReferenceArray<V> dense;
+    private volatile IntInstanceMap<V> sparse;
+
+    private volatile int size;
+    private volatile boolean retired;
+
+    InstanceSlots()
+    {
+        dense = (AtomicReferenceArray<V>) EMPTY;
+    }
+
+    @Nullable
+    V get(int instanceId)
+    {
+        AtomicReferenceArray<V> dense = this.dense;
+        if(instanceId < dense.length())
+        {
+            V value = dense.get(instanceId);
+            if(value != null)
+                return value;
+        }
+
+        IntInstanceMap<V> sparse = this.sparse;
+        if(sparse == null)
+            return null;
+
+        return sparse.get(instanceId);
+    }
+
+    @Nullable
+    V computeIfAbsent(int instanceId, @NotNull IntFunction<? extends V> mappingFunction)
+    {
+        V value = get(instanceId);
+        if(value != null)
+            return value;
+
+        synchronized(this)
+        {
+            if(retired)
+                return null;
+
+            value = get(instanceId);
+            if(value != null)
+                return value;
+
+            value = mappingFunction.apply(instanceId);
+            if(value == null)
+                return null;
+
+            V existing = insert(instanceId, value);
+            return existing == null ? value : existing;
+        }
+    }
+
+    @Nullable
+    V remove(int instanceId)
+    {
+        synchronized(this)
+        {
+            AtomicReferenceArray<V> dense = this.dense;
+            if(instanceId < dense.length())
+            {
+                V value = dense.getAndSet(instanceId, null);
+                if(value != null)
+                {
+                    size--;
+                    return value;
+                }
+            }
+
+            if(sparse == null)
+                return null;
+
+            V value = sparse.remove(instanceId);
+            if(value != null)
+                size--;
+
+            return value;
+        }
+    }
+
+    boolean remove(int instanceId, @NotNull Object expectedValue)
+    {
+        synchronized(this)
+        {
+            AtomicReferenceArray<V> dense = this.dense;
+            if(instanceId < dense.length() && dense.compareAndSet(instanceId, (V) expectedValue, null))
+            {
+                size--;
+                return true;
+            }
+
+            if(sparse == null || !sparse.remove(instanceId, expectedValue))
+                return false;
+
+            size--;
+            return true;
+        }
+    }
+
+    boolean replace(int instanceId, @NotNull Object expectedValue, @NotNull V newValue)
+    {
+        synchronized(this)
+        {
+            AtomicReferenceArray<V> dense = this.dense;
+            if(instanceId < dense.length() && dense.compareAndSet(instanceId, (V) expectedValue, newValue))
+                return true;
+
+            return sparse != null && sparse.replace(instanceId, expectedValue, newValue);
+        }
+    }
+
+    void drainTo(@NotNull RemovedInstances<V> removed)
+    {
+        synchronized(this)
+        {
+            AtomicReferenceArray<V> dense = this.dense;
+            for(int i = 0; i < dense.length(); i++)
+            {
+                V value = dense.get(i);
+                if(value == null || value instanceof PendingInstance<?> || !dense.compareAndSet(i, value, null))
+                    continue;
+
+                removed.add(i, value);
+                size--;
+            }
+
+            if(sparse != null)
+            {
+                int drained = removed.size();
+                sparse.drainTo(removed);
+                size -= removed.size() - drained;
+            }
+        }
+    }
+
+    @NotNull
+    <K, R> Spliterator<R> spliterator(@NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        AtomicReferenceArray<V> dense = this.dense;
+        IntInstanceMap<V> sparse = this.sparse;
+
+        return new SlotSpliterator<>(dense, 0, dense.length(), sparse == null ? null : sparse.spliterator(key, mapper), key, mapper);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    boolean isRetired()
+    {
+        return retired;
+    }
+
+    void retire()
+    {
+        retired = true;
+    }
+
+    @Nullable
+    private V insert(int instanceId, @NotNull V value)
+    {
+        V existing = get(instanceId);
+        if(existing != null)
+            return existing;
+
+        AtomicReferenceArray<V> dense = this.dense;
+        if(instanceId >= dense.length() && isDenseCandidate(instanceId))
+            dense = grow(dense, instanceId);
+
+        if(instanceId < dense.length())
+        {
+            dense.set(instanceId, value);
+        }else
+        {
+            if(sparse == null)
+                sparse = new IntInstanceMap<>();
+
+            sparse.putIfAbsent(instanceId, value);
+        }
+
+        size++;
+        return null;
+    }
+
+    private boolean isDenseCandidate(int instanceId)
+    {
+        return instanceId < MAXIMUM_DENSE_LENGTH && instanceId < Math.max(size + 1, MINIMUM_DENSE_LENGTH) * 2;
+    }
+
+    @NotNull
+    private AtomicReferenceArray<V> grow(@NotNull AtomicReferenceArray<V> dense, int instanceId)
+    {
+        int length = Math.max(dense.length(), MINIMUM_DENSE_LENGTH);
+        while(length <= instanceId)
+            length <<= 1;
+
+        AtomicReferenceArray<V> grown = new AtomicReferenceArray<>(Math.min(length, MAXIMUM_DENSE_LENGTH));
+        for(int i = 0; i < dense.length(); i++)
+            grown.lazySet(i, dense.get(i));
+
+        this.dense = grown;
+        return grown;
+    }
+
+    private static final class SlotSpliterator<K, V, R> implements Spliterator<R>
+    {
+
+        private final AtomicReferenceArray<V> dense;
+        private final int fence;
+        private final K key;
+        private final InstanceMapper<? super K, ? super V, ? extends R> mapper;
+
+        private int index;
+        private Spliterator<R> sparse;
+
+        private SlotSpliterator(@NotNull AtomicReferenceArray<V> dense, int index, int fence, @Nullable Spliterator<R> sparse, @NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+        {
+            this.dense = dense;
+            this.index = index;
+            this.fence = fence;
+            this.sparse = sparse;
+            this.key = key;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(@NotNull Consumer<? super R> action)
+        {
+            while(index < fence)
+            {
+                int instanceId = index++;
+
+                V value = dense.get(instanceId);
+                if(value == null)
+                    continue;
+
+                R mapped = mapper.map(key, instanceId, value);
+                if(mapped != null)
+                {
+                    action.accept(mapped);
+                    return true;
+                }
+            }
+
+            return sparse != null && sparse.tryAdvance(action);
+        }
+
+        @Nullable
+        @Override
+        public Spliterator<R> trySplit()
+        {
+            if(sparse != null)
+            {
+                if(index >= fence)
+                    return sparse.trySplit();
+
+                Spliterator<R> split = sparse;
+                sparse = null;
+
+                return split;
+            }
+
+            int middle = (index + fence) >>> 1;
+            if(middle <= index)
+                return null;
+
+            SlotSpliterator<K, V, R> prefix = new SlotSpliterator<>(dense, index, middle, null, key, mapper);
+            index = middle;
+
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return fence - index + (sparse == null ? 0 : sparse.estimateSize());
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return CONCURRENT | NONNULL;
+        }
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package de.fiertubehd;
+
+public record InstanceStats(long hitCount, long missCount, long creationSuccessCount, long creationFailureCount, long removalCount, long size)
+{
+
+    public long requestCount()
+    {
+        return hitCount + missCount;
+    }
+
+    public double hitRate()
+    {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+}
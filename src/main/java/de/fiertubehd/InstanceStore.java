@@ -0,0 +1,44 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.IntFunction;
+
+interface InstanceStore<K, V>
+{
+
+    @Nullable
+    V get(@NotNull K key, int instanceId);
+
+    @Nullable
+    V computeIfAbsent(@NotNull K key, int instanceId, @NotNull IntFunction<? extends V> mappingFunction);
+
+    void getAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] values);
+
+    // Bulk removals leave pending creations in place, so a placeholder is only ever removed by its own creation.
+    int removeAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] removedValues);
+
+    boolean remove(@NotNull K key, int instanceId, @NotNull Object expectedValue);
+
+    @NotNull
+    RemovedInstances<V> removeKey(@NotNull K key);
+
+    // Removes every instance but pending creations in one pass. Parts of the store may be drained
+    // concurrently, and the consumer is called outside of any store lock.
+    void drain(@NotNull InstanceConsumer<? super K, ? super V> consumer);
+
+    @NotNull
+    Set<K> keys();
+
+    boolean replace(@NotNull K key, int instanceId, @NotNull Object expectedValue, @NotNull V newValue);
+
+    @NotNull
+    <R> Spliterator<R> spliterator(@NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper);
+
+    @NotNull
+    <R> Spliterator<R> spliterator(@NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper);
+
+}
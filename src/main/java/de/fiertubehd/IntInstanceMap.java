@@ -0,0 +1,343 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+final class IntInstanceMap<V>
+{
+
+    private static final int MINIMUM_CAPACITY = 8;
+    private static final Object TOMBSTONE = new Object();
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private volatile Table table;
+
+    private volatile int size;
+    private int used;
+
+    IntInstanceMap()
+    {
+        table = new Table(MINIMUM_CAPACITY);
+    }
+
+    @Nullable
+    V get(int key)
+    {
+        Table table = this.table;
+
+        int mask = table.mask;
+        int index = spread(key) & mask;
+        while(true)
+        {
+            Object value = VALUES.getAcquire(table.values, index);
+            if(value == null)
+                return null;
+
+            if(table.keys[index] == key)
+                return value == TOMBSTONE ? null : (V) value;
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    boolean containsKey(int key)
+    {
+        return get(key) != null;
+    }
+
+    @Nullable
+    V computeIfAbsent(int key, @NotNull IntFunction<? extends V> mappingFunction)
+    {
+        V value = get(key);
+        if(value != null)
+            return value;
+
+        synchronized(this)
+        {
+            value = get(key);
+            if(value != null)
+                return value;
+
+            value = mappingFunction.apply(key);
+            if(value == null)
+                return null;
+
+            V existing = insert(key, value);
+            return existing == null ? value : existing;
+        }
+    }
+
+    @Nullable
+    V putIfAbsent(int key, @NotNull V value)
+    {
+        synchronized(this)
+        {
+            return insert(key, value);
+        }
+    }
+
+    @Nullable
+    V remove(int key)
+    {
+        synchronized(this)
+        {
+            Table table = this.table;
+
+            int index = indexOf(table, key);
+            if(index < 0)
+                return null;
+
+            Object value = table.values[index];
+            if(value == TOMBSTONE)
+                return null;
+
+            VALUES.setRelease(table.values, index, TOMBSTONE);
+            size--;
+
+            return (V) value;
+        }
+    }
+
+    boolean remove(int key, @NotNull Object expectedValue)
+    {
+        synchronized(this)
+        {
+            Table table = this.table;
+
+            int index = indexOf(table, key);
+            if(index < 0 || table.values[index] != expectedValue)
+                return false;
+
+            VALUES.setRelease(table.values, index, TOMBSTONE);
+            size--;
+
+            return true;
+        }
+    }
+
+    boolean replace(int key, @NotNull Object expectedValue, @NotNull V newValue)
+    {
+        synchronized(this)
+        {
+            Table table = this.table;
+
+            int index = indexOf(table, key);
+            if(index < 0 || table.values[index] != expectedValue)
+                return false;
+
+            VALUES.setRelease(table.values, index, newValue);
+            return true;
+        }
+    }
+
+    void drainTo(@NotNull RemovedInstances<V> removed)
+    {
+        synchronized(this)
+        {
+            Table table = this.table;
+            for(int i = 0; i < table.values.length; i++)
+            {
+                Object value = table.values[i];
+                if(value == null || value == TOMBSTONE || value instanceof PendingInstance<?>)
+                    continue;
+
+                VALUES.setRelease(table.values, i, TOMBSTONE);
+                removed.add(table.keys[i], (V) value);
+                size--;
+            }
+        }
+    }
+
+    @NotNull
+    <K, R> Spliterator<R> spliterator(@NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        Table table = this.table;
+        return new SlotSpliterator<>(table, 0, table.values.length, key, mapper);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    @Nullable
+    private V insert(int key, @NotNull V value)
+    {
+        Table table = this.table;
+
+        int index = indexOf(table, key);
+        if(index >= 0)
+        {
+            Object existing = table.values[index];
+            if(existing != TOMBSTONE)
+                return (V) existing;
+
+            VALUES.setRelease(table.values, index, value);
+            size++;
+
+            return null;
+        }
+
+        if(used + 1 > table.threshold)
+        {
+            table = rehash(table);
+            index = indexOf(table, key);
+        }
+
+        index = -index - 1;
+        table.keys[index] = key;
+        VALUES.setRelease(table.values, index, value);
+
+        size++;
+        used++;
+
+        return null;
+    }
+
+    @NotNull
+    private Table rehash(@NotNull Table table)
+    {
+        int capacity = MINIMUM_CAPACITY;
+        while((size + 1) * 2 > capacity)
+            capacity <<= 1;
+
+        Table rehashed = new Table(capacity);
+        for(int i = 0; i < table.values.length; i++)
+        {
+            Object value = table.values[i];
+            if(value == null || value == TOMBSTONE)
+                continue;
+
+            int index = -indexOf(rehashed, table.keys[i]) - 1;
+            rehashed.keys[index] = table.keys[i];
+            rehashed.values[index] = value;
+        }
+
+        used = size;
+        this.table = rehashed;
+
+        return rehashed;
+    }
+
+    private static int indexOf(@NotNull Table table, int key)
+    {
+        int mask = table.mask;
+        int index = spread(key) & mask;
+        while(true)
+        {
+            Object value = table.values[index];
+            if(value == null)
+                return -index - 1;
+
+            if(table.keys[index] == key)
+                return index;
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static int spread(int key)
+    {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class SlotSpliterator<K, V, R> implements Spliterator<R>
+    {
+
+        private final Table table;
+        private final int fence;
+        private final K key;
+        private final InstanceMapper<? super K, ? super V, ? extends R> mapper;
+
+        private int index;
+
+        private SlotSpliterator(@NotNull Table table, int index, int fence, @NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+        {
+            this.table = table;
+            this.index = index;
+            this.fence = fence;
+            this.key = key;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(@NotNull Consumer<? super R> action)
+        {
+            while(index < fence)
+            {
+                int slot = index++;
+
+                Object value = VALUES.getAcquire(table.values, slot);
+                if(value == null || value == TOMBSTONE)
+                    continue;
+
+                R mapped = mapper.map(key, table.keys[slot], (V) value);
+                if(mapped != null)
+                {
+                    action.accept(mapped);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Nullable
+        @Override
+        public Spliterator<R> trySplit()
+        {
+            int middle = (index + fence) >>> 1;
+            if(middle <= index)
+                return null;
+
+            SlotSpliterator<K, V, R> prefix = new SlotSpliterator<>(table, index, middle, key, mapper);
+            index = middle;
+
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return CONCURRENT | NONNULL;
+        }
+
+    }
+
+    private static final class Table
+    {
+
+        private final int[] keys;
+        private final Object[] values;
+        private final int mask;
+        private final int threshold;
+
+        private Table(int capacity)
+        {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            threshold = capacity - (capacity >>> 2);
+        }
+
+    }
+
+}
@@ -0,0 +1,13 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface JournalFailureListener
+{
+
+    void onFailure(@NotNull IOException failure) throws Exception;
+
+}
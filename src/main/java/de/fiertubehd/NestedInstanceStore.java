@@ -0,0 +1,283 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+final class NestedInstanceStore<K, V> implements InstanceStore<K, V>
+{
+
+    private final ConcurrentHashMap<K, InstanceSlots<V>> instances;
+
+    NestedInstanceStore()
+    {
+        instances = new ConcurrentHashMap<>();
+    }
+
+    @Nullable
+    @Override
+    public V get(@NotNull K key, int instanceId)
+    {
+        InstanceSlots<V> innerMap = instances.get(key);
+        if(innerMap == null)
+            return null;
+
+        return innerMap.get(instanceId);
+    }
+
+    @Nullable
+    @Override
+    public V computeIfAbsent(@NotNull K key, int instanceId, @NotNull IntFunction<? extends V> mappingFunction)
+    {
+        while(true)
+        {
+            InstanceSlots<V> innerMap = instances.get(key);
+            if(innerMap == null)
+                innerMap = instances.computeIfAbsent(key, k -> new InstanceSlots<>());
+
+            V value = innerMap.computeIfAbsent(instanceId, mappingFunction);
+            if(value != null || !innerMap.isRetired())
+                return value;
+        }
+    }
+
+    @Override
+    public void getAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] values)
+    {
+        InstanceSlots<V> innerMap = instances.get(key);
+        if(innerMap == null)
+            return;
+
+        for(int i = 0; i < instanceIds.length; i++)
+            values[i] = innerMap.get(instanceIds[i]);
+    }
+
+    @Override
+    public int removeAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] removedValues)
+    {
+        InstanceSlots<V> innerMap = instances.get(key);
+        if(innerMap == null)
+            return 0;
+
+        int removed = 0;
+        synchronized(innerMap)
+        {
+            for(int i = 0; i < instanceIds.length; i++)
+            {
+                V value = innerMap.get(instanceIds[i]);
+                if(value == null || value instanceof PendingInstance<?> || !innerMap.remove(instanceIds[i], value))
+                    continue;
+
+                removedValues[i] = value;
+                removed++;
+            }
+
+            if(removed > 0)
+                reclaimIfEmpty(key, innerMap);
+        }
+
+        return removed;
+    }
+
+    @Override
+    public boolean remove(@NotNull K key, int instanceId, @NotNull Object expectedValue)
+    {
+        InstanceSlots<V> innerMap = instances.get(key);
+        if(innerMap == null)
+            return false;
+
+        synchronized(innerMap)
+        {
+            if(!innerMap.remove(instanceId, expectedValue))
+                return false;
+
+            reclaimIfEmpty(key, innerMap);
+            return true;
+        }
+    }
+
+    @NotNull
+    @Override
+    public RemovedInstances<V> removeKey(@NotNull K key)
+    {
+        RemovedInstances<V> removed = new RemovedInstances<>();
+
+        InstanceSlots<V> innerMap = instances.get(key);
+        if(innerMap == null)
+            return removed;
+
+        synchronized(innerMap)
+        {
+            innerMap.drainTo(removed);
+            reclaimIfEmpty(key, innerMap);
+        }
+
+        return removed;
+    }
+
+    @Override
+    public void drain(@NotNull InstanceConsumer<? super K, ? super V> consumer)
+    {
+        instances.keySet().parallelStream().forEach(key ->
+        {
+            RemovedInstances<V> removed = removeKey(key);
+            for(int i = 0; i < removed.size(); i++)
+                consumer.accept(key, removed.instanceId(i), removed.value(i));
+        });
+    }
+
+    @NotNull
+    @Override
+    public Set<K> keys()
+    {
+        return instances.keySet();
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, int instanceId, @NotNull Object expectedValue, @NotNull V newValue)
+    {
+        InstanceSlots<V> innerMap = instances.get(key);
+        if(innerMap == null)
+            return false;
+
+        return innerMap.replace(instanceId, expectedValue, newValue);
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        return new KeySpliterator<>(this, instances.entrySet().spliterator(), -1, mapper);
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        InstanceSlots<V> innerMap = instances.get(key);
+        if(innerMap == null)
+            return Spliterators.emptySpliterator();
+
+        return innerMap.spliterator(key, mapper);
+    }
+
+    int keyCount()
+    {
+        return instances.size();
+    }
+
+    long size()
+    {
+        long size = 0;
+        for(InstanceSlots<V> innerMap : instances.values())
+            size += innerMap.size();
+
+        return size;
+    }
+
+    private void reclaimIfEmpty(@NotNull K key, @NotNull InstanceSlots<V> innerMap)
+    {
+        if(!innerMap.isEmpty() || innerMap.isRetired())
+            return;
+
+        innerMap.retire();
+        instances.remove(key, innerMap);
+    }
+
+    private static final class KeySpliterator<K, V, R> implements Spliterator<R>, Consumer<Map.Entry<K, InstanceSlots<V>>>
+    {
+
+        private final NestedInstanceStore<K, V> store;
+        private final Spliterator<Map.Entry<K, InstanceSlots<V>>> entries;
+        private final InstanceMapper<? super K, ? super V, ? extends R> mapper;
+
+        private Spliterator<R> current;
+        private long estimate;
+
+        private KeySpliterator(@NotNull NestedInstanceStore<K, V> store, @NotNull Spliterator<Map.Entry<K, InstanceSlots<V>>> entries, long estimate, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+        {
+            this.store = store;
+            this.entries = entries;
+            this.estimate = estimate;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(@NotNull Consumer<? super R> action)
+        {
+            while(true)
+            {
+                if(current != null && current.tryAdvance(action))
+                    return true;
+
+                current = null;
+                if(!entries.tryAdvance(this))
+                    return false;
+            }
+        }
+
+        @Override
+        public void forEachRemaining(@NotNull Consumer<? super R> action)
+        {
+            if(current != null)
+            {
+                current.forEachRemaining(action);
+                current = null;
+            }
+
+            entries.forEachRemaining(entry -> entry.getValue().spliterator(entry.getKey(), mapper).forEachRemaining(action));
+        }
+
+        @Override
+        public void accept(@NotNull Map.Entry<K, InstanceSlots<V>> entry)
+        {
+            current = entry.getValue().spliterator(entry.getKey(), mapper);
+        }
+
+        @Nullable
+        @Override
+        public Spliterator<R> trySplit()
+        {
+            Spliterator<Map.Entry<K, InstanceSlots<V>>> split = entries.trySplit();
+            if(split != null)
+            {
+                estimate = estimateSize() >>> 1;
+                return new KeySpliterator<>(store, split, estimate, mapper);
+            }
+
+            // A single remaining key is split across its own instance ids.
+            if(current == null && !entries.tryAdvance(this))
+                return null;
+
+            Spliterator<R> prefix = current.trySplit();
+            if(prefix != null)
+                estimate = Math.max(estimateSize() - prefix.estimateSize(), 0);
+
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            if(estimate < 0)
+                estimate = store.size();
+
+            return estimate;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return CONCURRENT | NONNULL;
+        }
+
+    }
+
+}
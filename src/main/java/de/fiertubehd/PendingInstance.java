@@ -0,0 +1,64 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+final class PendingInstance<I> extends CompletableFuture<I>
+{
+
+    // Only ever compared against the current thread, so the creating thread always sees its own write.
+    private Thread creator;
+
+    // Written before the failure completes this future, so readers that observed completion see both.
+    private CreationBackoffException backoffFailure;
+    private long retryAt;
+
+    void claim()
+    {
+        creator = Thread.currentThread();
+    }
+
+    boolean isCreatedByCurrentThread()
+    {
+        return creator == Thread.currentThread();
+    }
+
+    void await()
+    {
+        if(isDone())
+            return;
+
+        if(creator == Thread.currentThread())
+            throw new IllegalStateException("Instance cannot be created recursively.");
+
+        try
+        {
+            join();
+
+        }catch(CompletionException | CancellationException ignored)
+        {
+        }
+    }
+
+    void backOff(@NotNull Throwable failure, long backoffNanos)
+    {
+        backoffFailure = new CreationBackoffException(failure);
+        retryAt = System.nanoTime() + backoffNanos;
+
+        completeExceptionally(failure);
+    }
+
+    @Nullable("if this instance is not backing off")
+    CreationBackoffException backoffFailure()
+    {
+        if(!isCompletedExceptionally() || backoffFailure == null || System.nanoTime() - retryAt >= 0)
+            return null;
+
+        return backoffFailure;
+    }
+
+}
@@ -0,0 +1,9 @@
+package de.fiertubehd;
+
+@FunctionalInterface
+public interface PrewarmListener
+{
+
+    void onProgress(long completedCount, long totalCount);
+
+}
@@ -0,0 +1,24 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.util.List;
+
+public record PrewarmResult<K>(long requestedCount, long createdCount, long existingCount, @NotNull List<Failure<K>> failures)
+{
+
+    public long failedCount()
+    {
+        return failures.size();
+    }
+
+    public boolean isSuccessful()
+    {
+        return failures.isEmpty();
+    }
+
+    public record Failure<K>(@NotNull K key, int instanceId, @NotNull Throwable cause)
+    {
+    }
+
+}
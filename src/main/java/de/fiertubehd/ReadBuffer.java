@@ -0,0 +1,94 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+final class ReadBuffer<E>
+{
+
+    static final int SUCCESS = 0;
+    static final int FAILED = 1;
+    static final int FULL = 2;
+
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    private final Stripe<E>[] stripes;
+    private final int stripeMask;
+
+    ReadBuffer()
+    {
+        int stripeCount = 1;
+        while(stripeCount < Runtime.getRuntime().availableProcessors() * 2)
+            stripeCount <<= 1;
+
+        stripes = new Stripe[stripeCount];
+        for(int i = 0; i < stripeCount; i++)
+            stripes[i] = new Stripe<>();
+
+        stripeMask = stripeCount - 1;
+    }
+
+    int offer(@NotNull E element)
+    {
+        long threadId = Thread.currentThread().threadId();
+        int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask].offer(element);
+    }
+
+    void drainTo(@NotNull Consumer<E> consumer)
+    {
+        for(Stripe<E> stripe : stripes)
+            stripe.drainTo(consumer);
+    }
+
+    private static final class Stripe<E>
+    {
+
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private final AtomicLong readCounter = new AtomicLong();
+
+        private int offer(@NotNull E element)
+        {
+            long head = readCounter.get();
+            long tail = writeCounter.get();
+
+            if(tail - head >= BUFFER_SIZE)
+                return FULL;
+
+            if(!writeCounter.compareAndSet(tail, tail + 1))
+                return FAILED;
+
+            buffer.lazySet((int) (tail & BUFFER_MASK), element);
+            return SUCCESS;
+        }
+
+        private void drainTo(@NotNull Consumer<E> consumer)
+        {
+            long head = readCounter.get();
+            long tail = writeCounter.get();
+
+            while(head < tail)
+            {
+                int index = (int) (head & BUFFER_MASK);
+
+                E element = buffer.get(index);
+                if(element == null)
+                    break;
+
+                buffer.lazySet(index, null);
+                consumer.accept(element);
+                head++;
+            }
+
+            readCounter.lazySet(head);
+        }
+
+    }
+
+}
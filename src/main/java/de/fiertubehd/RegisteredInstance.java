@@ -0,0 +1,6 @@
+package de.fiertubehd;
+
+public record RegisteredInstance<K, I>(K key, int instanceId, I instance)
+{
+
+}
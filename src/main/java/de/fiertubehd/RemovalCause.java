@@ -0,0 +1,11 @@
+package de.fiertubehd;
+
+public enum RemovalCause
+{
+
+    EXPLICIT,
+    SIZE,
+    EXPIRED,
+    COLLECTED
+
+}
@@ -0,0 +1,12 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+@FunctionalInterface
+public interface RemovalListener<K, I>
+{
+
+    void onRemoval(@NotNull K key, int instanceId, @Nullable I instance, @NotNull RemovalCause cause) throws Exception;
+
+}
@@ -0,0 +1,49 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.util.Arrays;
+
+final class RemovedInstances<V>
+{
+
+    private int[] instanceIds;
+    private Object[] values;
+    private int size;
+
+    RemovedInstances()
+    {
+        instanceIds = new int[8];
+        values = new Object[8];
+    }
+
+    void add(int instanceId, @NotNull V value)
+    {
+        if(size == values.length)
+        {
+            instanceIds = Arrays.copyOf(instanceIds, size << 1);
+            values = Arrays.copyOf(values, size << 1);
+        }
+
+        instanceIds[size] = instanceId;
+        values[size] = value;
+        size++;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int instanceId(int index)
+    {
+        return instanceIds[index];
+    }
+
+    @NotNull
+    V value(int index)
+    {
+        return (V) values[index];
+    }
+
+}
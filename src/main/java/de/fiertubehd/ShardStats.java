@@ -0,0 +1,11 @@
+package de.fiertubehd;
+
+public record ShardStats(long keyCount, long size, long writeCount, long contendedWriteCount)
+{
+
+    public double contentionRate()
+    {
+        return writeCount == 0 ? 0.0 : (double) contendedWriteCount / writeCount;
+    }
+
+}
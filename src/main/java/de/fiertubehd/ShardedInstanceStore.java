@@ -0,0 +1,383 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+import de.fiertubehd.fluffyannotationslibrary.annotations.Nullable;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+
+final class ShardedInstanceStore<K, V> implements InstanceStore<K, V>
+{
+
+    private final NestedInstanceStore<K, V>[] stores;
+    private final Shard<K, V>[] shards;
+    private final Set<K> keys;
+
+    ShardedInstanceStore(int shardCount, boolean recordStats)
+    {
+        stores = new NestedInstanceStore[shardCount];
+        shards = new Shard[shardCount];
+        for(int i = 0; i < shardCount; i++)
+        {
+            stores[i] = new NestedInstanceStore<>();
+            shards[i] = new Shard<>(stores[i], recordStats);
+        }
+
+        keys = new KeySet();
+    }
+
+    @Nullable
+    @Override
+    public V get(@NotNull K key, int instanceId)
+    {
+        return stores[indexFor(key)].get(key, instanceId);
+    }
+
+    @Nullable
+    @Override
+    public V computeIfAbsent(@NotNull K key, int instanceId, @NotNull IntFunction<? extends V> mappingFunction)
+    {
+        Shard<K, V> shard = shardFor(key);
+
+        boolean owner = shard.beginWrite();
+        try
+        {
+            return shard.instances.computeIfAbsent(key, instanceId, mappingFunction);
+
+        }finally
+        {
+            shard.endWrite(owner);
+        }
+    }
+
+    @Override
+    public void getAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] values)
+    {
+        stores[indexFor(key)].getAll(key, instanceIds, values);
+    }
+
+    @Override
+    public int removeAll(@NotNull K key, @NotNull int[] instanceIds, @NotNull Object[] removedValues)
+    {
+        Shard<K, V> shard = shardFor(key);
+
+        boolean owner = shard.beginWrite();
+        try
+        {
+            return shard.instances.removeAll(key, instanceIds, removedValues);
+
+        }finally
+        {
+            shard.endWrite(owner);
+        }
+    }
+
+    @Override
+    public boolean remove(@NotNull K key, int instanceId, @NotNull Object expectedValue)
+    {
+        Shard<K, V> shard = shardFor(key);
+
+        boolean owner = shard.beginWrite();
+        try
+        {
+            return shard.instances.remove(key, instanceId, expectedValue);
+
+        }finally
+        {
+            shard.endWrite(owner);
+        }
+    }
+
+    @NotNull
+    @Override
+    public RemovedInstances<V> removeKey(@NotNull K key)
+    {
+        Shard<K, V> shard = shardFor(key);
+
+        boolean owner = shard.beginWrite();
+        try
+        {
+            return shard.instances.removeKey(key);
+
+        }finally
+        {
+            shard.endWrite(owner);
+        }
+    }
+
+    @Override
+    public void drain(@NotNull InstanceConsumer<? super K, ? super V> consumer)
+    {
+        for(Shard<K, V> shard : shards)
+        {
+            boolean owner = shard.beginWrite();
+            try
+            {
+                shard.instances.drain(consumer);
+
+            }finally
+            {
+                shard.endWrite(owner);
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public Set<K> keys()
+    {
+        return keys;
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, int instanceId, @NotNull Object expectedValue, @NotNull V newValue)
+    {
+        Shard<K, V> shard = shardFor(key);
+
+        boolean owner = shard.beginWrite();
+        try
+        {
+            return shard.instances.replace(key, instanceId, expectedValue, newValue);
+
+        }finally
+        {
+            shard.endWrite(owner);
+        }
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        return new ShardSpliterator<>(i -> stores[i].spliterator(mapper), i -> stores[i].size(), 0, stores.length, Spliterator.CONCURRENT | Spliterator.NONNULL);
+    }
+
+    @NotNull
+    @Override
+    public <R> Spliterator<R> spliterator(@NotNull K key, @NotNull InstanceMapper<? super K, ? super V, ? extends R> mapper)
+    {
+        return stores[indexFor(key)].spliterator(key, mapper);
+    }
+
+    @NotNull
+    List<ShardStats> shardStats()
+    {
+        List<ShardStats> shardStats = new ArrayList<>(shards.length);
+        for(Shard<K, V> shard : shards)
+        {
+            if(shard.writing == null)
+                shardStats.add(new ShardStats(shard.instances.keyCount(), shard.instances.size(), 0, 0));
+            else
+                shardStats.add(new ShardStats(shard.instances.keyCount(), shard.instances.size(), shard.writeCount.sum(), shard.contendedWriteCount.sum()));
+        }
+
+        return shardStats;
+    }
+
+    @NotNull
+    private Shard<K, V> shardFor(@NotNull K key)
+    {
+        return shards[indexFor(key)];
+    }
+
+    private int indexFor(@NotNull K key)
+    {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return (int) (((hash ^ (hash >>> 16)) & 0xFFFFFFFFL) * stores.length >>> 32);
+    }
+
+    private final class KeySet extends AbstractSet<K>
+    {
+
+        @Override
+        public boolean contains(@Nullable Object key)
+        {
+            return key != null && stores[indexFor((K) key)].keys().contains(key);
+        }
+
+        @Override
+        public int size()
+        {
+            long size = 0;
+            for(NestedInstanceStore<K, V> store : stores)
+                size += store.keyCount();
+
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            for(NestedInstanceStore<K, V> store : stores)
+                if(store.keyCount() > 0)
+                    return false;
+
+            return true;
+        }
+
+        @NotNull
+        @Override
+        public Iterator<K> iterator()
+        {
+            return Spliterators.iterator(spliterator());
+        }
+
+        @NotNull
+        @Override
+        public Spliterator<K> spliterator()
+        {
+            return new ShardSpliterator<>(i -> stores[i].keys().spliterator(), i -> stores[i].keyCount(), 0, stores.length, Spliterator.DISTINCT | Spliterator.CONCURRENT | Spliterator.NONNULL);
+        }
+
+    }
+
+    private static final class ShardSpliterator<R> implements Spliterator<R>
+    {
+
+        private final IntFunction<Spliterator<R>> shardSpliterator;
+        private final IntToLongFunction shardSize;
+        private final int fence;
+        private final int characteristics;
+
+        private int index;
+        private Spliterator<R> current;
+        private long estimate = -1;
+
+        private ShardSpliterator(@NotNull IntFunction<Spliterator<R>> shardSpliterator, @NotNull IntToLongFunction shardSize, int index, int fence, int characteristics)
+        {
+            this.shardSpliterator = shardSpliterator;
+            this.shardSize = shardSize;
+            this.index = index;
+            this.fence = fence;
+            this.characteristics = characteristics;
+        }
+
+        @Override
+        public boolean tryAdvance(@NotNull Consumer<? super R> action)
+        {
+            while(true)
+            {
+                if(current != null && current.tryAdvance(action))
+                    return true;
+
+                if(index >= fence)
+                    return false;
+
+                current = shardSpliterator.apply(index++);
+            }
+        }
+
+        @Override
+        public void forEachRemaining(@NotNull Consumer<? super R> action)
+        {
+            if(current != null)
+            {
+                current.forEachRemaining(action);
+                current = null;
+            }
+
+            while(index < fence)
+                shardSpliterator.apply(index++).forEachRemaining(action);
+        }
+
+        @Nullable
+        @Override
+        public Spliterator<R> trySplit()
+        {
+            if(fence - index > 1)
+            {
+                int middle = (index + fence) >>> 1;
+
+                ShardSpliterator<R> prefix = new ShardSpliterator<>(shardSpliterator, shardSize, index, middle, characteristics);
+                index = middle;
+                estimate = -1;
+
+                return prefix;
+            }
+
+            if(current == null)
+            {
+                if(index >= fence)
+                    return null;
+
+                current = shardSpliterator.apply(index++);
+            }
+
+            estimate = -1;
+            return current.trySplit();
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            if(estimate >= 0)
+                return estimate;
+
+            long estimate = current == null ? 0 : current.estimateSize();
+            for(int i = index; i < fence; i++)
+                estimate += shardSize.applyAsLong(i);
+
+            this.estimate = estimate;
+            return estimate;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return characteristics;
+        }
+
+    }
+
+    private static final class Shard<K, V>
+    {
+
+        private final NestedInstanceStore<K, V> instances;
+
+        // Counts writes that overlap another write to the same shard. Only kept while stats are recorded,
+        // so the write path touches no shared state otherwise.
+        private final AtomicBoolean writing;
+        private final LongAdder writeCount;
+        private final LongAdder contendedWriteCount;
+
+        private Shard(@NotNull NestedInstanceStore<K, V> instances, boolean recordStats)
+        {
+            this.instances = instances;
+
+            writing = recordStats ? new AtomicBoolean() : null;
+            writeCount = recordStats ? new LongAdder() : null;
+            contendedWriteCount = recordStats ? new LongAdder() : null;
+        }
+
+        private boolean beginWrite()
+        {
+            if(writing == null)
+                return false;
+
+            writeCount.increment();
+            if(!writing.get() && writing.compareAndSet(false, true))
+                return true;
+
+            contendedWriteCount.increment();
+            return false;
+        }
+
+        private void endWrite(boolean owner)
+        {
+            if(owner)
+                writing.set(false);
+        }
+
+    }
+
+}
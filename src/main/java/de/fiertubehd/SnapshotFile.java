@@ -0,0 +1,293 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+final class SnapshotFile
+{
+
+    private static final int MAGIC = 0x494D534E;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MINIMUM_PARTITION_SIZE = 1 << 10;
+
+    private SnapshotFile()
+    {
+    }
+
+    static <K, I> long write(@NotNull Path path, @NotNull Spliterator<RegisteredInstance<K, I>> instances, @NotNull Codec<? super K> keyCodec, @NotNull Codec<? super I> instanceCodec, @NotNull Executor executor) throws IOException
+    {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try
+        {
+            long writtenCount = writeChunks(temporary, instances, keyCodec, instanceCodec, executor);
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return writtenCount;
+
+        }catch(IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    static <K, I> void read(@NotNull Path path, @NotNull Codec<? extends K> keyCodec, @NotNull Codec<? extends I> instanceCodec, @NotNull Executor executor, @NotNull InstanceConsumer<K, I> consumer) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+
+            ByteBuffer header = readFully(path, channel, 0, HEADER_SIZE, size);
+            if(header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IllegalArgumentException(path + " is not an instance snapshot.");
+
+            List<CompletableFuture<Void>> chunks = new ArrayList<>();
+            for(long position = HEADER_SIZE; position < size; )
+            {
+                ByteBuffer chunkHeader = readFully(path, channel, position, CHUNK_HEADER_SIZE, size);
+                int length = chunkHeader.getInt();
+                int recordCount = chunkHeader.getInt();
+
+                long offset = position + CHUNK_HEADER_SIZE;
+                if(length < 0 || recordCount < 0 || offset + length > size)
+                    throw new IllegalArgumentException(path + " is truncated.");
+
+                // Records are decoded straight from the mapped pages; codecs receive read-only slices.
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                chunks.add(CompletableFuture.runAsync(() -> readChunk(chunk, recordCount, keyCodec, instanceCodec, consumer), executor));
+
+                position = offset + length;
+            }
+
+            join(chunks);
+        }
+    }
+
+    private static <K, I> long writeChunks(@NotNull Path path, @NotNull Spliterator<RegisteredInstance<K, I>> instances, @NotNull Codec<? super K> keyCodec, @NotNull Codec<? super I> instanceCodec, @NotNull Executor executor) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            while(header.hasRemaining())
+                channel.write(header, header.position());
+
+            AtomicLong position = new AtomicLong(HEADER_SIZE);
+            LongAdder writtenCount = new LongAdder();
+
+            // Small stores are not spread over more writers than they fill, since each writer holds its own chunk buffer.
+            long partitionCount = Math.min(Runtime.getRuntime().availableProcessors() * 4L, instances.estimateSize() / MINIMUM_PARTITION_SIZE);
+
+            List<CompletableFuture<Void>> parts = new ArrayList<>();
+            for(Spliterator<RegisteredInstance<K, I>> part : partition(instances, (int) Math.max(partitionCount, 1)))
+            {
+                parts.add(CompletableFuture.runAsync(() ->
+                {
+                    ChunkWriter<K, I> writer = new ChunkWriter<>(channel, position, keyCodec, instanceCodec);
+                    part.forEachRemaining(writer::write);
+                    writer.flush();
+
+                    writtenCount.add(writer.writtenCount);
+                }, executor));
+            }
+
+            join(parts);
+            channel.force(true);
+
+            return writtenCount.sum();
+        }
+    }
+
+    private static <K, I> void readChunk(@NotNull ByteBuffer chunk, int recordCount, @NotNull Codec<? extends K> keyCodec, @NotNull Codec<? extends I> instanceCodec, @NotNull InstanceConsumer<K, I> consumer)
+    {
+        for(int i = 0; i < recordCount; i++)
+        {
+            int instanceId = chunk.getInt();
+            K key = decode(chunk, keyCodec);
+            I instance = decode(chunk, instanceCodec);
+
+            consumer.accept(key, instanceId, instance);
+        }
+    }
+
+    @NotNull
+    private static <T> T decode(@NotNull ByteBuffer chunk, @NotNull Codec<? extends T> codec)
+    {
+        int length = chunk.getInt();
+        int position = chunk.position();
+
+        T value = codec.decode(chunk.slice(position, length).asReadOnlyBuffer());
+        chunk.position(position + length);
+
+        return value;
+    }
+
+    @NotNull
+    private static ByteBuffer readFully(@NotNull Path path, @NotNull FileChannel channel, long position, int length, long size) throws IOException
+    {
+        if(position + length > size)
+            throw new IllegalArgumentException(path + " is truncated.");
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining())
+            channel.read(buffer, position + buffer.position());
+
+        return buffer.flip();
+    }
+
+    @NotNull
+    static <T> List<Spliterator<T>> partition(@NotNull Spliterator<T> spliterator, int partitionCount)
+    {
+        // Always splits the largest remaining part, so the parts stay balanced instead of halving geometrically.
+        PriorityQueue<Spliterator<T>> splittable = new PriorityQueue<>(Comparator.comparingLong((Spliterator<T> part) -> part.estimateSize()).reversed());
+        splittable.add(spliterator);
+
+        List<Spliterator<T>> parts = new ArrayList<>(partitionCount);
+        while(!splittable.isEmpty() && parts.size() + splittable.size() < partitionCount)
+        {
+            Spliterator<T> largest = splittable.poll();
+
+            Spliterator<T> split = largest.trySplit();
+            if(split == null)
+            {
+                parts.add(largest);
+                continue;
+            }
+
+            splittable.add(largest);
+            splittable.add(split);
+        }
+
+        parts.addAll(splittable);
+        return parts;
+    }
+
+    private static void join(@NotNull List<CompletableFuture<Void>> futures) throws IOException
+    {
+        try
+        {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
+
+        }catch(CompletionException e)
+        {
+            if(e.getCause() instanceof UncheckedIOException cause)
+                throw cause.getCause();
+
+            if(e.getCause() instanceof RuntimeException cause)
+                throw cause;
+
+            throw e;
+        }
+    }
+
+    private static final class ChunkWriter<K, I>
+    {
+
+        private final FileChannel channel;
+        private final AtomicLong position;
+        private final Codec<? super K> keyCodec;
+        private final Codec<? super I> instanceCodec;
+
+        private ByteBuffer buffer;
+        private int recordCount;
+        private long writtenCount;
+
+        private ChunkWriter(@NotNull FileChannel channel, @NotNull AtomicLong position, @NotNull Codec<? super K> keyCodec, @NotNull Codec<? super I> instanceCodec)
+        {
+            this.channel = channel;
+            this.position = position;
+            this.keyCodec = keyCodec;
+            this.instanceCodec = instanceCodec;
+        }
+
+        private void write(@NotNull RegisteredInstance<K, I> instance)
+        {
+            // Allocated on the first record, so a writer whose part turns out empty holds no direct memory.
+            if(buffer == null)
+                buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).position(CHUNK_HEADER_SIZE);
+
+            while(true)
+            {
+                int start = buffer.position();
+                try
+                {
+                    buffer.putInt(instance.instanceId());
+                    encode(instance.key(), keyCodec);
+                    encode(instance.instance(), instanceCodec);
+
+                    recordCount++;
+                    writtenCount++;
+                    return;
+
+                }catch(BufferOverflowException e)
+                {
+                    buffer.position(start);
+                }
+
+                // A record that does not fit into an empty chunk gets a larger buffer.
+                if(recordCount > 0)
+                    flush();
+                else
+                    buffer = ByteBuffer.allocateDirect(buffer.capacity() << 1).position(CHUNK_HEADER_SIZE);
+            }
+        }
+
+        private <T> void encode(@NotNull T value, @NotNull Codec<? super T> codec)
+        {
+            int lengthPosition = buffer.position();
+            buffer.putInt(0);
+
+            codec.encode(value, buffer);
+            buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+        }
+
+        private void flush()
+        {
+            if(recordCount == 0)
+                return;
+
+            buffer.putInt(0, buffer.position() - CHUNK_HEADER_SIZE);
+            buffer.putInt(Integer.BYTES, recordCount);
+            buffer.flip();
+
+            try
+            {
+                long offset = position.getAndAdd(buffer.remaining());
+                while(buffer.hasRemaining())
+                    offset += channel.write(buffer, offset);
+
+            }catch(IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+
+            buffer.clear().position(CHUNK_HEADER_SIZE);
+            recordCount = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+final class StatsCounter implements InstanceManagerMXBean
+{
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder creationSuccesses;
+    private final LongAdder creationFailures;
+    private final LongAdder removals;
+    private final LongAdder size;
+
+    StatsCounter()
+    {
+        hits = new LongAdder();
+        misses = new LongAdder();
+        creationSuccesses = new LongAdder();
+        creationFailures = new LongAdder();
+        removals = new LongAdder();
+        size = new LongAdder();
+    }
+
+    void recordHit()
+    {
+        hits.increment();
+    }
+
+    void recordMiss()
+    {
+        misses.increment();
+    }
+
+    void recordCreationSuccess()
+    {
+        creationSuccesses.increment();
+    }
+
+    void recordInsertion()
+    {
+        size.increment();
+    }
+
+    void recordCreationFailure()
+    {
+        creationFailures.increment();
+    }
+
+    void recordRemoval()
+    {
+        removals.increment();
+        size.decrement();
+    }
+
+    @NotNull
+    InstanceStats snapshot()
+    {
+        return new InstanceStats(hits.sum(), misses.sum(), creationSuccesses.sum(), creationFailures.sum(), removals.sum(), size.sum());
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate()
+    {
+        return snapshot().hitRate();
+    }
+
+    @Override
+    public long getCreationSuccessCount()
+    {
+        return creationSuccesses.sum();
+    }
+
+    @Override
+    public long getCreationFailureCount()
+    {
+        return creationFailures.sum();
+    }
+
+    @Override
+    public long getRemovalCount()
+    {
+        return removals.sum();
+    }
+
+    @Override
+    public long getSize()
+    {
+        return size.sum();
+    }
+
+}
@@ -0,0 +1,11 @@
+package de.fiertubehd;
+
+public enum StorageMode
+{
+
+    NESTED,
+    // Keeps no per-key index, so keys() and per-key operations such as unregisterAll(K) and instances(K) scan the whole table.
+    FLAT,
+    SHARDED
+
+}
@@ -0,0 +1,132 @@
+package de.fiertubehd;
+
+import de.fiertubehd.fluffyannotationslibrary.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+final class TimerWheel<K, V>
+{
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS =
+            {
+                    ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)),
+                    ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)),
+                    ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),
+                    ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+                    BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+                    BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1))
+            };
+    private static final long[] SHIFTS =
+            {
+                    Long.numberOfTrailingZeros(SPANS[0]),
+                    Long.numberOfTrailingZeros(SPANS[1]),
+                    Long.numberOfTrailingZeros(SPANS[2]),
+                    Long.numberOfTrailingZeros(SPANS[3]),
+                    Long.numberOfTrailingZeros(SPANS[4])
+            };
+
+    private final EntryDeque<K, V>[][] wheel;
+
+    private long time;
+
+    TimerWheel(long time)
+    {
+        this.time = time;
+
+        wheel = new EntryDeque[BUCKETS.length][];
+        for(int i = 0; i < wheel.length; i++)
+        {
+            wheel[i] = new EntryDeque[BUCKETS[i]];
+            for(int j = 0; j < wheel[i].length; j++)
+                wheel[i][j] = new EntryDeque<>(EntryDeque.TIMER_ORDER);
+        }
+    }
+
+    void schedule(@NotNull InstanceEntry<K, V> entry)
+    {
+        EntryDeque<K, V> bucket = findBucket(entry.expiresAt);
+
+        bucket.addLast(entry);
+        entry.timerBucket = bucket;
+    }
+
+    void deschedule(@NotNull InstanceEntry<K, V> entry)
+    {
+        EntryDeque<K, V> bucket = entry.timerBucket;
+        if(bucket == null)
+            return;
+
+        bucket.remove(entry);
+        entry.timerBucket = null;
+    }
+
+    void advance(long now, @NotNull Consumer<InstanceEntry<K, V>> consumer)
+    {
+        long previous = time;
+        time = now;
+
+        for(int i = 0; i < SHIFTS.length; i++)
+        {
+            long previousTicks = previous >>> SHIFTS[i];
+            long currentTicks = now >>> SHIFTS[i];
+            if(currentTicks - previousTicks <= 0)
+                break;
+
+            expire(i, previousTicks, currentTicks - previousTicks, consumer);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta, @NotNull Consumer<InstanceEntry<K, V>> consumer)
+    {
+        EntryDeque<K, V>[] buckets = wheel[level];
+
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+
+        for(int i = start; i < start + steps; i++)
+        {
+            EntryDeque<K, V> bucket = buckets[i & mask];
+
+            InstanceEntry<K, V> entry = bucket.detach();
+            while(entry != null)
+            {
+                InstanceEntry<K, V> next = bucket.next(entry);
+
+                entry.previousInTimer = null;
+                entry.nextInTimer = null;
+                entry.timerBucket = null;
+
+                consumer.accept(entry);
+                entry = next;
+            }
+        }
+    }
+
+    @NotNull
+    private EntryDeque<K, V> findBucket(long expiresAt)
+    {
+        expiresAt = Math.max(expiresAt, time);
+        long duration = expiresAt - time;
+
+        int length = wheel.length - 1;
+        for(int i = 0; i < length; i++)
+        {
+            if(duration < SPANS[i + 1])
+            {
+                long ticks = expiresAt >>> SHIFTS[i];
+                return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+            }
+        }
+
+        return wheel[length][0];
+    }
+
+    private static long ceilingPowerOfTwo(long value)
+    {
+        return 1L << -Long.numberOfLeadingZeros(value - 1);
+    }
+
+}
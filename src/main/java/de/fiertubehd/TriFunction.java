@@ -0,0 +1,9 @@
+package de.fiertubehd;
+
+@FunctionalInterface
+public interface TriFunction<A, B, C, R>
+{
+
+    R apply(A first, B second, C third);
+
+}
@@ -0,0 +1,10 @@
+package de.fiertubehd;
+
+public enum ValueStrength
+{
+
+    STRONG,
+    WEAK,
+    SOFT
+
+}
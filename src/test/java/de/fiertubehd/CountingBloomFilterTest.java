@@ -0,0 +1,89 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountingBloomFilterTest
+{
+
+    @Test
+    void remainingMembersAreFoundAfterRemovals()
+    {
+        // Sized far below the member count, so counters are shared and many saturate.
+        CountingBloomFilter filter = new CountingBloomFilter(1024);
+
+        for(int instanceId = 0; instanceId < 100_000; instanceId++)
+            filter.add(CountingBloomFilter.hash(42, instanceId));
+
+        for(int instanceId = 0; instanceId < 100_000; instanceId += 2)
+            filter.remove(CountingBloomFilter.hash(42, instanceId));
+
+        for(int instanceId = 1; instanceId < 100_000; instanceId += 2)
+            assertTrue(filter.mightContain(CountingBloomFilter.hash(42, instanceId)), "false negative for " + instanceId);
+    }
+
+    @Test
+    void repeatedMembersStayUntilTheirLastRemoval()
+    {
+        CountingBloomFilter filter = new CountingBloomFilter(16);
+
+        long hash = CountingBloomFilter.hash("key".hashCode(), 7);
+        for(int i = 0; i < 20; i++)
+            filter.add(hash);
+
+        for(int i = 0; i < 19; i++)
+            filter.remove(hash);
+
+        assertTrue(filter.mightContain(hash));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void filteredLookupsFindEveryLiveInstance(StorageMode storageMode) throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .storageMode(storageMode)
+                .lookupFilter(256)
+                .build();
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for(int worker = 0; worker < 8; worker++)
+        {
+            String key = "key" + (worker & 3);
+            workers.add(CompletableFuture.runAsync(() ->
+            {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for(int i = 0; i < 20_000; i++)
+                {
+                    int instanceId = random.nextInt(512);
+                    if(random.nextBoolean())
+                        manager.getInstanceWith(key, instanceId, Named::new, key);
+                    else if(random.nextInt(8) == 0)
+                        manager.unregisterInstances(key, instanceId, instanceId + 4);
+                    else
+                        manager.unregisterInstance(key, instanceId);
+                }
+            }));
+        }
+
+        CompletableFuture.allOf(workers.toArray(CompletableFuture<?>[]::new)).get(60, TimeUnit.SECONDS);
+
+        manager.forEach((key, instanceId, instance) ->
+        {
+            assertTrue(manager.existsInstance(key, instanceId), "false negative for " + key + "/" + instanceId);
+            assertSame(instance, manager.getExistingInstance(key, instanceId));
+        });
+    }
+
+}
@@ -0,0 +1,266 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntryPolicyTest
+{
+
+    @ParameterizedTest
+    @EnumSource(EvictionPolicy.class)
+    void maximumSizeBoundsLiveInstances(EvictionPolicy evictionPolicy)
+    {
+        LongAdder evicted = new LongAdder();
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .evictionPolicy(evictionPolicy)
+                .maximumSize(100)
+                .cleanupExecutor(Runnable::run)
+                .removalListener((key, instanceId, instance, cause) ->
+                {
+                    if(cause == RemovalCause.SIZE)
+                        evicted.increment();
+                })
+                .build();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < 10_000; i++)
+        {
+            // Skewed ids, so admission sees both hot and cold candidates.
+            int instanceId = random.nextBoolean() ? random.nextInt(50) : random.nextInt(5000);
+            manager.getInstance("key" + (instanceId & 7), instanceId, new Object[] {"name"});
+
+            if(i % 500 == 0)
+            {
+                manager.cleanUp();
+                assertTrue(manager.stream().count() <= 100);
+            }
+        }
+
+        manager.cleanUp();
+
+        long live = manager.stream().count();
+        assertTrue(live <= 100, "live " + live);
+        assertEquals(manager.keys().stream().mapToLong(key -> manager.instances(key).count()).sum(), live);
+        assertTrue(evicted.sum() > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(EvictionPolicy.class)
+    void maximumSizePerKeyBoundsEachKey(EvictionPolicy evictionPolicy)
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .evictionPolicy(evictionPolicy)
+                .maximumSizePerKey(10)
+                .cleanupExecutor(Runnable::run)
+                .build();
+
+        for(int key = 0; key < 20; key++)
+            for(int instanceId = 0; instanceId < 100; instanceId++)
+                manager.getInstance("key" + key, instanceId, new Object[] {"name"});
+
+        manager.cleanUp();
+
+        for(int key = 0; key < 20; key++)
+            assertTrue(manager.instances("key" + key).count() <= 10);
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void concurrentCreationsStayWithinMaximumSize(StorageMode storageMode) throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .storageMode(storageMode)
+                .maximumSize(200)
+                .recordStats()
+                .build();
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for(int worker = 0; worker < 8; worker++)
+        {
+            String key = "key" + worker;
+            workers.add(CompletableFuture.runAsync(() ->
+            {
+                for(int instanceId = 0; instanceId < 5000; instanceId++)
+                    manager.getInstance(key, instanceId, new Object[] {"name"});
+            }));
+        }
+
+        CompletableFuture.allOf(workers.toArray(CompletableFuture<?>[]::new)).get(60, TimeUnit.SECONDS);
+        manager.cleanUp();
+
+        long live = manager.stream().count();
+        assertTrue(live <= 200, "live " + live);
+        assertEquals(live, manager.stats().size());
+    }
+
+    @Test
+    void failingListenerDoesNotAbortEviction()
+    {
+        LongAdder notified = new LongAdder();
+        LongAdder reported = new LongAdder();
+
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .maximumSize(10)
+                .cleanupExecutor(Runnable::run)
+                .removalListener((key, instanceId, instance, cause) ->
+                {
+                    notified.increment();
+                    throw new IllegalStateException("listener");
+                })
+                .build();
+
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((failed, e) -> reported.increment());
+        try
+        {
+            for(int instanceId = 0; instanceId < 100; instanceId++)
+                manager.getInstance("key", instanceId, new Object[] {"name"});
+
+            manager.cleanUp();
+
+        }finally
+        {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+
+        long live = manager.stream().count();
+        assertTrue(live <= 10, "live " + live);
+        assertEquals(100 - live, notified.sum());
+        assertEquals(notified.sum(), reported.sum());
+    }
+
+    @Test
+    void typedListenerReceivesTypedKeys()
+    {
+        List<String> evictedKeys = new ArrayList<>();
+        RemovalListener<String, Named> listener = (key, instanceId, instance, cause) -> evictedKeys.add(key.toUpperCase());
+
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .maximumSize(1)
+                .cleanupExecutor(Runnable::run)
+                .removalListener(listener)
+                .build();
+
+        manager.getInstance("first", 0, new Object[] {"name"});
+        manager.getInstance("second", 0, new Object[] {"name"});
+        manager.cleanUp();
+
+        assertEquals(1, evictedKeys.size());
+        assertTrue(evictedKeys.get(0).equals("FIRST") || evictedKeys.get(0).equals("SECOND"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void expiredInstancesAreRemoved(StorageMode storageMode) throws Exception
+    {
+        LongAdder expired = new LongAdder();
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .storageMode(storageMode)
+                .expireAfterWrite(Duration.ofMillis(50))
+                .cleanupExecutor(Runnable::run)
+                .removalListener((key, instanceId, instance, cause) ->
+                {
+                    if(cause == RemovalCause.EXPIRED)
+                        expired.increment();
+                })
+                .build();
+
+        for(int instanceId = 0; instanceId < 100; instanceId++)
+            manager.getInstance("key", instanceId, new Object[] {"name"});
+
+        Thread.sleep(100);
+        assertEquals(0, manager.stream().count());
+        assertFalse(manager.existsInstance("key", 0));
+
+        // Expired instances are hidden at once, but the timer wheel only removes them on its next tick.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(expired.sum() < 100 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(50);
+            manager.cleanUp();
+        }
+
+        assertEquals(100, expired.sum());
+    }
+
+    @Test
+    void accessedInstancesOutliveTheirAccessTimeout() throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .expireAfterAccess(Duration.ofMillis(300))
+                .cleanupExecutor(Runnable::run)
+                .build();
+
+        Named kept = manager.getInstance("key", 0, new Object[] {"kept"});
+        manager.getInstance("key", 1, new Object[] {"dropped"});
+
+        for(int i = 0; i < 8; i++)
+        {
+            Thread.sleep(100);
+            assertSame(kept, manager.getInstance("key", 0, new Object[] {"other"}));
+        }
+
+        manager.cleanUp();
+
+        assertTrue(manager.existsInstance("key", 0));
+        assertFalse(manager.existsInstance("key", 1));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void weakInstancesAreRemovedOnceCollected(StorageMode storageMode) throws Exception
+    {
+        ConcurrentLinkedQueue<String> removals = new ConcurrentLinkedQueue<>();
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .storageMode(storageMode)
+                .valueStrength(ValueStrength.WEAK)
+                .cleanupExecutor(Runnable::run)
+                .removalListener((key, instanceId, instance, cause) -> removals.add(key + ":" + instanceId + ":" + instance + ":" + cause))
+                .build();
+
+        Named kept = manager.getInstance("kept", 0, new Object[] {"kept"});
+        manager.getInstance("dropped", 0, new Object[] {"dropped"});
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(manager.existsInstance("dropped", 0) && System.nanoTime() < deadline)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        // Cleared, but the entry stays in the store until maintenance drains the reference queue.
+        assertNull(manager.getExistingInstance("dropped", 0));
+        assertTrue(manager.keys().contains("dropped"));
+        assertTrue(removals.isEmpty());
+
+        while(removals.isEmpty() && System.nanoTime() < deadline)
+        {
+            manager.cleanUp();
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of("dropped:0:null:COLLECTED"), List.copyOf(removals));
+        assertEquals(Set.of("kept"), manager.keys());
+        assertSame(kept, manager.getExistingInstance("kept", 0));
+    }
+
+}
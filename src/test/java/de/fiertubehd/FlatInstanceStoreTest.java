@@ -0,0 +1,104 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlatInstanceStoreTest
+{
+
+    @Test
+    void removedKeysAreNotRetained() throws InterruptedException
+    {
+        FlatInstanceStore<Object, Object> store = new FlatInstanceStore<>();
+
+        Object key = new Object();
+        WeakReference<Object> reference = new WeakReference<>(key);
+
+        Object first = store.computeIfAbsent(key, 1, id -> "first");
+        store.computeIfAbsent(key, 2, id -> "second");
+        store.remove(key, 1, first);
+        store.removeKey(key);
+        key = null;
+
+        for(int i = 0; i < 50 && reference.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(reference.get());
+    }
+
+    @Test
+    void reinsertsAfterRemoval()
+    {
+        FlatInstanceStore<String, Object> store = new FlatInstanceStore<>();
+
+        for(int round = 0; round < 1000; round++)
+        {
+            Object value = new Object();
+            assertSame(value, store.computeIfAbsent("key", 7, id -> value));
+            assertSame(value, store.get("key", 7));
+            assertTrue(store.remove("key", 7, value));
+            assertNull(store.get("key", 7));
+        }
+
+        assertTrue(store.keys().isEmpty());
+    }
+
+    @Test
+    void traversalSkipsRemovedSlots()
+    {
+        FlatInstanceStore<Integer, Object> store = new FlatInstanceStore<>();
+        for(int key = 0; key < 100; key++)
+            for(int instanceId = 0; instanceId < 10; instanceId++)
+                store.computeIfAbsent(key, instanceId, id -> "value");
+
+        for(int key = 0; key < 100; key += 2)
+            store.removeKey(key);
+
+        Set<Integer> keys = new HashSet<>();
+        store.spliterator((key, instanceId, value) -> key).forEachRemaining(keys::add);
+
+        assertEquals(50, keys.size());
+        assertEquals(keys, store.keys());
+    }
+
+    @Test
+    void keysFollowInsertsAndRemovals()
+    {
+        FlatInstanceStore<String, Object> store = new FlatInstanceStore<>();
+        for(int instanceId = 0; instanceId < 100; instanceId++)
+        {
+            store.computeIfAbsent("first", instanceId, id -> "value");
+            store.computeIfAbsent("second", instanceId, id -> "value");
+        }
+
+        assertEquals(2, store.keys().size());
+        assertTrue(store.keys().contains("first"));
+
+        Set<Integer> instanceIds = new HashSet<>();
+        store.spliterator("first", (key, instanceId, value) -> instanceId).forEachRemaining(instanceIds::add);
+        assertEquals(100, instanceIds.size());
+
+        assertEquals(100, store.removeKey("first").size());
+        assertFalse(store.keys().contains("first"));
+        assertEquals(Set.of("second"), store.keys());
+
+        for(int instanceId = 0; instanceId < 100; instanceId++)
+            store.remove("second", instanceId, store.get("second", instanceId));
+
+        assertTrue(store.keys().isEmpty());
+        assertFalse(store.spliterator("second", (key, instanceId, value) -> value).tryAdvance(value -> {}));
+    }
+
+}
@@ -0,0 +1,59 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeneratedFactoriesTest
+{
+
+    @Test
+    void factoryNamesFollowTheProcessor()
+    {
+        assertEquals("de.fiertubehd.GeneratedFactoriesTest_FixtureInstanceFactory", GeneratedFactories.factoryNameOf(Fixture.class));
+        assertEquals("de.fiertubehd.TestCodecs_NamedInstanceFactory", GeneratedFactories.factoryNameOf(Named.class));
+    }
+
+    @Test
+    void lookupsInstantiateOnlyTheMatchingProvider()
+    {
+        assertNull(GeneratedFactories.of(Named.class));
+        assertInstanceOf(GeneratedFactoriesTest_FixtureInstanceFactory.class, GeneratedFactories.of(Fixture.class));
+
+        assertEquals(0, UnrelatedInstanceFactory.INSTANTIATIONS.get());
+    }
+
+    @Test
+    void managerPrefersTheGeneratedFactory()
+    {
+        InstanceManager<String, Fixture> manager = new InstanceManager<>(Fixture.class);
+
+        Fixture generated = manager.getInstance("key", 0, new Object[] {"name"});
+        assertEquals("name", generated.name);
+        assertTrue(generated.generated);
+
+        // Parameters the generated factory does not accept fall back to constructor resolution.
+        Fixture reflective = manager.getInstance("key", 1, new Object[] {"name", false});
+        assertFalse(reflective.generated);
+    }
+
+    static final class Fixture
+    {
+
+        private final String name;
+        private final boolean generated;
+
+        Fixture(String name, Boolean generated)
+        {
+            this.name = name;
+            this.generated = generated;
+        }
+
+    }
+
+}
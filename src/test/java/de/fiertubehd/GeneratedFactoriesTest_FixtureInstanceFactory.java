@@ -0,0 +1,22 @@
+package de.fiertubehd;
+
+// Written the way the annotation processor generates it for GeneratedFactoriesTest.Fixture.
+public final class GeneratedFactoriesTest_FixtureInstanceFactory implements InstanceFactory<GeneratedFactoriesTest.Fixture>
+{
+
+    @Override
+    public Class<GeneratedFactoriesTest.Fixture> instanceClass()
+    {
+        return GeneratedFactoriesTest.Fixture.class;
+    }
+
+    @Override
+    public GeneratedFactoriesTest.Fixture newInstance(Object[] parameters)
+    {
+        if(parameters.length == 1 && parameters[0] instanceof String name)
+            return new GeneratedFactoriesTest.Fixture(name, true);
+
+        return null;
+    }
+
+}
@@ -0,0 +1,101 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GetInstanceAsyncTest
+{
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void concurrentCallsShareOneCreation(StorageMode storageMode) throws Exception
+    {
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .storageMode(storageMode)
+                .executor(tasks::add)
+                .build();
+
+        List<CompletableFuture<CompletableFuture<Named>>> callers = new ArrayList<>();
+        for(int caller = 0; caller < 8; caller++)
+            callers.add(CompletableFuture.supplyAsync(() -> manager.getInstanceAsync("key", 1, new Object[] {"created"})));
+
+        List<CompletableFuture<Named>> futures = new ArrayList<>();
+        for(CompletableFuture<CompletableFuture<Named>> caller : callers)
+            futures.add(caller.get(10, TimeUnit.SECONDS));
+
+        assertEquals(1, tasks.size());
+        assertTrue(futures.stream().noneMatch(CompletableFuture::isDone));
+
+        // Completing or cancelling one caller's future leaves the shared creation alone.
+        futures.get(0).cancel(true);
+        futures.get(1).complete(new Named("other"));
+        futures.get(2).obtrudeValue(new Named("obtruded"));
+
+        assertFalse(manager.getInstanceAsync("key", 1, new Object[] {"duplicate"}).isDone());
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+
+        Named created = manager.getExistingInstance("key", 1);
+        assertEquals("created", created.name());
+        for(CompletableFuture<Named> future : futures.subList(3, futures.size()))
+            assertSame(created, future.get(10, TimeUnit.SECONDS));
+
+        assertTrue(tasks.isEmpty());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void hitsDoNotScheduleCreations(StorageMode storageMode)
+    {
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .storageMode(storageMode)
+                .executor(tasks::add)
+                .build();
+
+        Named created = manager.getInstance("key", 1, new Object[] {"created"});
+
+        CompletableFuture<Named> future = manager.getInstanceAsync("key", 1, new Object[] {"other"});
+        assertTrue(future.isDone());
+        assertSame(created, future.join());
+        assertTrue(tasks.isEmpty());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void failedCreationLeavesNoEntry(StorageMode storageMode) throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .storageMode(storageMode)
+                .executor(Runnable::run)
+                .build();
+
+        CompletableFuture<Named> failed = manager.getInstanceAsync("key", 1, new Object[] {1.5});
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+        assertFalse(manager.existsInstance("key", 1));
+        assertEquals(0, manager.stream().count());
+
+        assertEquals("created", manager.getInstanceAsync("key", 1, new Object[] {"created"}).get(10, TimeUnit.SECONDS).name());
+    }
+
+}
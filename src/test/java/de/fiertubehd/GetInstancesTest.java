@@ -0,0 +1,118 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GetInstancesTest
+{
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void partialHitsAndRepeatedIdsShareInstances(StorageMode storageMode)
+    {
+        InstanceManager<String, Counted> manager = new InstanceManager<>(Counted.class, storageMode);
+
+        AtomicInteger constructions = new AtomicInteger();
+        Object[] parameters = {constructions, -1};
+
+        Counted first = manager.getInstance("key", 1, parameters);
+        Counted third = manager.getInstance("key", 3, parameters);
+
+        // Ids 0 and 2 are missing, so they are created in parallel; id 0 is requested twice.
+        Counted[] instances = manager.getInstances("key", new int[] {0, 1, 2, 1, 3, 0}, parameters);
+
+        assertEquals(6, instances.length);
+        assertSame(first, instances[1]);
+        assertSame(first, instances[3]);
+        assertSame(third, instances[4]);
+        assertNotNull(instances[0]);
+        assertNotNull(instances[2]);
+        assertSame(instances[0], instances[5]);
+        assertNotSame(instances[0], instances[2]);
+
+        assertEquals(4, constructions.get());
+        assertSame(instances[0], manager.getExistingInstance("key", 0));
+        assertSame(instances[2], manager.getExistingInstance("key", 2));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void rangeCreatesOnlyMissingInstances(StorageMode storageMode)
+    {
+        InstanceManager<String, Counted> manager = new InstanceManager<>(Counted.class, storageMode);
+
+        AtomicInteger constructions = new AtomicInteger();
+        Object[] parameters = {constructions, -1};
+
+        Counted single = manager.getInstances("key", 4, 5, parameters)[0];
+        Counted[] instances = manager.getInstances("key", 0, 10, parameters);
+
+        assertEquals(10, instances.length);
+        assertSame(single, instances[4]);
+        assertEquals(10, constructions.get());
+
+        Counted[] repeated = manager.getInstances("key", 0, 10, parameters);
+        for(int instanceId = 0; instanceId < 10; instanceId++)
+            assertSame(instances[instanceId], repeated[instanceId]);
+
+        assertEquals(10, constructions.get());
+        assertEquals(0, manager.getInstances("key", 3, 3, parameters).length);
+    }
+
+    @Test
+    void rangeRejectsInvalidBounds()
+    {
+        InstanceManager<String, Counted> manager = new InstanceManager<>(Counted.class);
+
+        Object[] parameters = {new AtomicInteger(), -1};
+
+        assertThrows(IllegalArgumentException.class, () -> manager.getInstances("key", 5, 4, parameters));
+        assertThrows(IllegalArgumentException.class, () -> manager.getInstances("key", new int[] {0, -1}, parameters));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void constructorFailureKeepsTheRestOfTheBatch(StorageMode storageMode)
+    {
+        InstanceManager<String, Counted> manager = new InstanceManager<>(Counted.class, storageMode);
+
+        AtomicInteger constructions = new AtomicInteger();
+        Object[] parameters = {constructions, 5};
+
+        RuntimeException failure = assertThrows(RuntimeException.class, () -> manager.getInstances("key", 0, 10, parameters));
+        assertInstanceOf(InvocationTargetException.class, failure.getCause());
+        assertInstanceOf(IllegalStateException.class, failure.getCause().getCause());
+
+        // Creations run independently, so every instance except the failed one is registered.
+        assertEquals(9, manager.instances("key").count());
+
+        Counted[] instances = manager.getInstances("key", 0, 10, parameters);
+        for(Counted instance : instances)
+            assertNotNull(instance);
+
+        assertEquals(11, constructions.get());
+    }
+
+    static final class Counted
+    {
+
+        Counted(AtomicInteger constructions, int failAt)
+        {
+            if(constructions.getAndIncrement() == failAt)
+                throw new IllegalStateException("Construction " + failAt + " failed.");
+        }
+
+    }
+
+}
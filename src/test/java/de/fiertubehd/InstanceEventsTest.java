@@ -0,0 +1,73 @@
+package de.fiertubehd;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceEventsTest
+{
+
+    private static final String CREATION = "de.fiertubehd.InstanceCreation";
+    private static final String RESOLUTION = "de.fiertubehd.ConstructorResolution";
+
+    @Test
+    void creationAndResolutionEventsAreCommitted() throws Exception
+    {
+        ConcurrentLinkedQueue<RecordedEvent> creations = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<RecordedEvent> resolutions = new ConcurrentLinkedQueue<>();
+        CountDownLatch received = new CountDownLatch(2);
+
+        try(RecordingStream stream = new RecordingStream())
+        {
+            stream.enable(CREATION);
+            stream.enable(RESOLUTION);
+            stream.onEvent(CREATION, event ->
+            {
+                creations.add(event);
+                received.countDown();
+            });
+            stream.onEvent(RESOLUTION, event ->
+            {
+                resolutions.add(event);
+                received.countDown();
+            });
+            stream.startAsync();
+
+            assertTrue(InstanceCreationEvent.isRecording());
+
+            InstanceManager<String, Recorded> manager = new InstanceManager<>(Recorded.class);
+            manager.getInstance("key", 7, new Object[] {"name"});
+
+            assertTrue(received.await(30, TimeUnit.SECONDS));
+        }
+
+        RecordedEvent creation = creations.peek();
+        assertEquals(Recorded.class.getName(), creation.getClass("instanceClass").getName());
+        assertEquals(String.class.getName(), creation.getClass("keyType").getName());
+        assertEquals(7, creation.getInt("instanceId"));
+        assertTrue(creation.getBoolean("success"));
+
+        RecordedEvent resolution = resolutions.peek();
+        assertEquals(Recorded.class.getName(), resolution.getClass("instanceClass").getName());
+        assertEquals(1, resolution.getInt("parameterCount"));
+        assertTrue(resolution.getInt("constructorsScanned") > 0);
+        assertTrue(resolution.getBoolean("resolved"));
+    }
+
+    static final class Recorded
+    {
+
+        Recorded(String name)
+        {
+        }
+
+    }
+
+}
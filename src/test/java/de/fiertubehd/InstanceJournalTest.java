@@ -0,0 +1,402 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceJournalTest
+{
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void journalReplaysOnTopOfSnapshot()
+    {
+        Path snapshot = directory.resolve("snapshot");
+        Path journal = directory.resolve("journal");
+
+        InstanceManager<String, Named> source = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        for(int instanceId = 0; instanceId < 100; instanceId++)
+            source.getInstance("key", instanceId, new Object[] {"before" + instanceId});
+
+        source.getInstance("other", 0, new Object[] {"other"});
+        assertEquals(101, source.snapshot(snapshot, TestCodecs.STRING, TestCodecs.NAMED));
+
+        for(int instanceId = 100; instanceId < 150; instanceId++)
+            source.getInstance("key", instanceId, new Object[] {"after" + instanceId});
+
+        source.unregisterInstances("key", 0, 10);
+        source.unregisterInstance("key", 120);
+        source.unregisterAll("other");
+        source.getInstance("other", 1, new Object[] {"recreated"});
+        source.flushJournal();
+
+        InstanceManager<String, Named> reopened = InstanceManager.<String, Named>builder(Named.class)
+                .restoreSnapshot(snapshot, TestCodecs.STRING, TestCodecs.NAMED)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        assertEquals(contents(source), contents(reopened));
+        assertEquals(140, reopened.stream().count());
+    }
+
+    @Test
+    void snapshotIncludesCreationJournaledBeforeTheRoll() throws Exception
+    {
+        Path snapshot = directory.resolve("snapshot");
+        Path journal = directory.resolve("journal");
+
+        InstanceManager<GatedKey, Gated> source = InstanceManager.<GatedKey, Gated>builder(Gated.class)
+                .journal(journal, GatedKey.CODEC, TestCodecs.PARAMETERS)
+                .build();
+
+        GatedKey key = new GatedKey("key");
+
+        // The creation is journaled, then blocks while installing its instance.
+        Gated.arm();
+        CompletableFuture<Gated> creation = CompletableFuture.supplyAsync(() -> source.getInstance(key, 1, new Object[] {"created"}));
+        assertTrue(GatedKey.REACHED.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Long> snapshotting = CompletableFuture.supplyAsync(() -> source.snapshot(snapshot, GatedKey.CODEC, Gated.CODEC));
+        assertThrows(TimeoutException.class, () -> snapshotting.get(500, TimeUnit.MILLISECONDS));
+
+        GatedKey.RELEASE.countDown();
+
+        assertEquals("created", creation.get(10, TimeUnit.SECONDS).name());
+        assertEquals(1, snapshotting.get(10, TimeUnit.SECONDS));
+        source.flushJournal();
+
+        InstanceManager<GatedKey, Gated> reopened = InstanceManager.<GatedKey, Gated>builder(Gated.class)
+                .restoreSnapshot(snapshot, GatedKey.CODEC, Gated.CODEC)
+                .journal(journal, GatedKey.CODEC, TestCodecs.PARAMETERS)
+                .build();
+
+        assertTrue(reopened.existsInstance(key, 1));
+    }
+
+    @Test
+    void concurrentChangesAreKept() throws Exception
+    {
+        Path journal = directory.resolve("journal");
+
+        InstanceManager<String, Named> source = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .journalQueueCapacity(200_000)
+                .build();
+
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for(int writer = 0; writer < 4; writer++)
+        {
+            String key = "key" + writer;
+            writers.add(CompletableFuture.runAsync(() ->
+            {
+                for(int instanceId = 0; instanceId < 50_000; instanceId++)
+                    source.getInstance(key, instanceId, new Object[] {key + "/" + instanceId});
+            }));
+        }
+
+        CompletableFuture.allOf(writers.toArray(CompletableFuture<?>[]::new)).get(60, TimeUnit.SECONDS);
+        source.closeAll();
+
+        InstanceManager<String, Named> reopened = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        assertEquals(200_000, reopened.stream().count());
+        assertEquals("key3/49999", reopened.getExistingInstance("key3", 49_999).name());
+    }
+
+    @Test
+    void fullQueueOnlyFailsTheCreation() throws Exception
+    {
+        Path journal = directory.resolve("journal");
+
+        // The writer is held back until released, so the queue fills up deterministically.
+        Queue<Runnable> held = new ConcurrentLinkedQueue<>();
+        AtomicBoolean holding = new AtomicBoolean(true);
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .journalExecutor(task ->
+                {
+                    if(holding.get())
+                        held.add(task);
+                    else
+                        task.run();
+                })
+                .journalQueueCapacity(8)
+                .build();
+
+        for(int instanceId = 0; instanceId < 8; instanceId++)
+            manager.getInstance("key", instanceId, new Object[] {"queued"});
+
+        assertThrows(IllegalStateException.class, () -> manager.getInstance("key", 8, new Object[] {"overflow"}));
+        assertFalse(manager.existsInstance("key", 8));
+
+        holding.set(false);
+        held.forEach(Runnable::run);
+
+        assertEquals("after", manager.getInstance("key", 8, new Object[] {"after"}).name());
+        assertTrue(manager.unregisterInstance("key", 0));
+        manager.flushJournal();
+
+        InstanceManager<String, Named> reopened = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        assertEquals(8, reopened.stream().count());
+        assertFalse(reopened.existsInstance("key", 0));
+        assertEquals("after", reopened.getExistingInstance("key", 8).name());
+    }
+
+    @Test
+    void factoryCreationsAreRejected()
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .journal(directory.resolve("journal"), TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        assertThrows(IllegalStateException.class, () -> manager.getInstanceWith("key", 0, () -> new Named("factory")));
+        assertThrows(IllegalStateException.class, () -> manager.computeIfAbsent("key", 0, (key, instanceId) -> new Named("factory")));
+        assertFalse(manager.existsInstance("key", 0));
+    }
+
+    @Test
+    void closeAllKeepsPendingCreations() throws Exception
+    {
+        Path journal = directory.resolve("journal");
+
+        InstanceManager<String, Slow> source = InstanceManager.<String, Slow>builder(Slow.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        CompletableFuture<Slow> creation = CompletableFuture.supplyAsync(() -> source.getInstance("key", 0, new Object[] {"slow"}));
+        assertTrue(Slow.STARTED.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(source::closeAll);
+        assertThrows(TimeoutException.class, () -> closing.get(500, TimeUnit.MILLISECONDS));
+
+        Slow.RELEASE.countDown();
+        Slow created = creation.get(10, TimeUnit.SECONDS);
+        closing.get(10, TimeUnit.SECONDS);
+
+        InstanceManager<String, Slow> reopened = InstanceManager.<String, Slow>builder(Slow.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        assertEquals(created, reopened.getExistingInstance("key", 0));
+    }
+
+    @Test
+    void failingCodecOnlyFailsItsChange()
+    {
+        Codec<Object[]> failingParameters = new Codec<>()
+        {
+
+            @Override
+            public void encode(Object[] value, ByteBuffer target)
+            {
+                if("fail".equals(value[0]))
+                    throw new IllegalStateException("Cannot encode parameters.");
+
+                TestCodecs.PARAMETERS.encode(value, target);
+            }
+
+            @Override
+            public Object[] decode(ByteBuffer source)
+            {
+                return TestCodecs.PARAMETERS.decode(source);
+            }
+
+        };
+
+        Path journal = directory.resolve("journal");
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, failingParameters)
+                .build();
+
+        assertThrows(IllegalStateException.class, () -> manager.getInstance("key", 0, new Object[] {"fail"}));
+        assertFalse(manager.existsInstance("key", 0));
+
+        manager.getInstance("key", 1, new Object[] {"value"});
+        manager.flushJournal();
+
+        InstanceManager<String, Named> reopened = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .build();
+
+        assertEquals(Map.of("key/1", "value"), contents(reopened));
+    }
+
+    @Test
+    void failedWriteFailsLaterChanges() throws Exception
+    {
+        Path journal = directory.resolve("journal");
+
+        CompletableFuture<IOException> reported = new CompletableFuture<>();
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .journal(journal, TestCodecs.STRING, TestCodecs.PARAMETERS)
+                .journalFailureListener(reported::complete)
+                .build();
+
+        manager.getInstance("key", 0, new Object[] {"before"});
+
+        // Rolling appends to the previous segment when one exists, which fails for a directory.
+        Files.createDirectories(directory.resolve("journal.previous").resolve("blocked"));
+        assertThrows(RuntimeException.class, () -> manager.snapshot(directory.resolve("snapshot"), TestCodecs.STRING, TestCodecs.NAMED));
+
+        assertInstanceOf(IOException.class, reported.get(10, TimeUnit.SECONDS));
+
+        UncheckedIOException failure = assertThrows(UncheckedIOException.class, () -> manager.getInstance("key", 1, new Object[] {"after"}));
+        assertSame(reported.get(), failure.getCause());
+        assertFalse(manager.existsInstance("key", 1));
+        assertThrows(UncheckedIOException.class, () -> manager.unregisterInstance("key", 0));
+        assertThrows(RuntimeException.class, manager::flushJournal);
+
+        manager.closeAll();
+    }
+
+    private static Map<String, String> contents(InstanceManager<String, Named> manager)
+    {
+        Map<String, String> contents = new HashMap<>();
+        manager.forEach((key, instanceId, instance) -> contents.put(key + "/" + instanceId, instance.name()));
+
+        return contents;
+    }
+
+    record GatedKey(String name)
+    {
+
+        static final CountDownLatch REACHED = new CountDownLatch(1);
+        static final CountDownLatch RELEASE = new CountDownLatch(1);
+
+        static final Codec<GatedKey> CODEC = new Codec<>()
+        {
+
+            @Override
+            public void encode(GatedKey value, ByteBuffer target)
+            {
+                TestCodecs.STRING.encode(value.name(), target);
+            }
+
+            @Override
+            public GatedKey decode(ByteBuffer source)
+            {
+                return new GatedKey(TestCodecs.STRING.decode(source));
+            }
+
+        };
+
+        @Override
+        public int hashCode()
+        {
+            // Blocks the first lookup made by the thread that constructed an armed instance.
+            if(Gated.armedThread == Thread.currentThread())
+            {
+                Gated.armedThread = null;
+                REACHED.countDown();
+
+                try
+                {
+                    RELEASE.await();
+
+                }catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return name.hashCode();
+        }
+
+    }
+
+    record Slow(String name)
+    {
+
+        static final CountDownLatch STARTED = new CountDownLatch(1);
+        static final CountDownLatch RELEASE = new CountDownLatch(1);
+
+        Slow
+        {
+            STARTED.countDown();
+
+            try
+            {
+                RELEASE.await();
+
+            }catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    record Gated(String name)
+    {
+
+        static final Codec<Gated> CODEC = new Codec<>()
+        {
+
+            @Override
+            public void encode(Gated value, ByteBuffer target)
+            {
+                TestCodecs.STRING.encode(value.name(), target);
+            }
+
+            @Override
+            public Gated decode(ByteBuffer source)
+            {
+                return new Gated(TestCodecs.STRING.decode(source));
+            }
+
+        };
+
+        private static volatile boolean armed;
+        private static volatile Thread armedThread;
+
+        Gated
+        {
+            if(armed)
+            {
+                armed = false;
+                armedThread = Thread.currentThread();
+            }
+        }
+
+        static void arm()
+        {
+            armed = true;
+        }
+
+    }
+
+}
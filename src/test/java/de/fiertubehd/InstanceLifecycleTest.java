@@ -0,0 +1,103 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceLifecycleTest
+{
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void closeAllClosesEveryInstance(StorageMode storageMode)
+    {
+        InstanceManager<String, Resource> manager = InstanceManager.<String, Resource>builder(Resource.class)
+                .storageMode(storageMode)
+                .lookupFilter(1024)
+                .recordStats()
+                .build();
+
+        List<Resource> resources = new ArrayList<>();
+        for(int key = 0; key < 100; key++)
+            for(int instanceId = 0; instanceId < 20; instanceId++)
+                resources.add(manager.getInstance("key" + key, instanceId, new Object[] {"resource"}));
+
+        manager.closeAll();
+
+        assertTrue(resources.stream().allMatch(Resource::isClosed));
+        assertEquals(0, manager.stream().count());
+        assertEquals(0, manager.stats().size());
+        assertEquals(2000, manager.stats().removalCount());
+        assertFalse(manager.existsInstance("key0", 0));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void removedInstancesAreClosedOnTheCleanupExecutor(StorageMode storageMode)
+    {
+        Queue<Runnable> cleanups = new ConcurrentLinkedQueue<>();
+        InstanceManager<String, Resource> manager = InstanceManager.<String, Resource>builder(Resource.class)
+                .storageMode(storageMode)
+                .maximumSize(10)
+                .closeOnRemoval(true)
+                .cleanupExecutor(cleanups::add)
+                .build();
+
+        Resource unregistered = manager.getInstance("key", 0, new Object[] {"unregistered"});
+        assertTrue(manager.unregisterInstance("key", 0));
+        assertFalse(unregistered.isClosed());
+
+        List<Resource> resources = new ArrayList<>();
+        for(int instanceId = 1; instanceId <= 100; instanceId++)
+            resources.add(manager.getInstance("key", instanceId, new Object[] {"resource"}));
+
+        Runnable cleanup;
+        while((cleanup = cleanups.poll()) != null)
+            cleanup.run();
+
+        manager.cleanUp();
+        while((cleanup = cleanups.poll()) != null)
+            cleanup.run();
+
+        assertTrue(unregistered.isClosed());
+
+        long live = manager.stream().count();
+        assertTrue(live <= 10, "live " + live);
+        assertEquals(100 - live, resources.stream().filter(Resource::isClosed).count());
+        manager.forEach((key, instanceId, resource) -> assertFalse(resource.isClosed()));
+    }
+
+    static final class Resource implements AutoCloseable
+    {
+
+        private volatile boolean closed;
+
+        Resource(String name)
+        {
+        }
+
+        boolean isClosed()
+        {
+            return closed;
+        }
+
+        @Override
+        public void close()
+        {
+            if(closed)
+                throw new IllegalStateException("Resource is already closed.");
+
+            closed = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceManagerTest
+{
+
+    @Test
+    void typedFactoriesAcceptOverloadedConstructors()
+    {
+        InstanceManager<String, Overloaded> manager = new InstanceManager<>(Overloaded.class);
+
+        assertEquals("none", manager.getInstanceWith("key", 0, Overloaded::new).description);
+        assertEquals("a", manager.getInstanceWith("key", 1, Overloaded::new, "a").description);
+        assertEquals("a2", manager.getInstanceWith("key", 2, Overloaded::new, "a", 2).description);
+        assertEquals("a2true", manager.getInstanceWith("key", 3, Overloaded::new, "a", 2, true).description);
+        assertEquals("key4", manager.computeIfAbsent("key", 4, Overloaded::new).description);
+
+        assertSame(manager.getInstanceWith("key", 0, Overloaded::new), manager.getInstance("key", 0, new Object[0]));
+    }
+
+    @Test
+    void typedFactoriesRejectNull()
+    {
+        InstanceManager<String, Overloaded> manager = new InstanceManager<>(Overloaded.class);
+
+        assertThrows(NullPointerException.class, () -> manager.getInstance("key", 0, null));
+        assertThrows(NullPointerException.class, () -> manager.getInstanceWith("key", 0, null));
+        assertThrows(NullPointerException.class, () -> manager.computeIfAbsent("key", 0, null));
+    }
+
+    @Test
+    void unresolvedConstructorThrowsIllegalArgumentException()
+    {
+        InstanceManager<String, Overloaded> manager = new InstanceManager<>(Overloaded.class);
+
+        IllegalArgumentException first = assertThrows(IllegalArgumentException.class, () -> manager.getInstance("key", 0, new Object[] {1.5}));
+
+        assertNull(first.getCause());
+        assertTrue(first.getStackTrace().length > 0);
+        assertTrue(first.getMessage().contains("java.lang.Double"));
+
+        for(int attempt = 0; attempt < 3; attempt++)
+        {
+            IllegalArgumentException repeated = assertThrows(IllegalArgumentException.class, () -> manager.getInstance("key", 0, new Object[] {2.5}));
+
+            assertNull(repeated.getCause());
+            assertEquals(0, repeated.getStackTrace().length);
+            assertEquals(first.getMessage(), repeated.getMessage());
+        }
+
+        // The static entry points never hand out the cached stackless failure.
+        for(int attempt = 0; attempt < 3; attempt++)
+        {
+            IllegalArgumentException created = assertThrows(IllegalArgumentException.class, () -> InstanceManager.createInstance(Overloaded.class, new Object[] {1.5}));
+            assertTrue(created.getStackTrace().length > 0);
+            assertEquals(first.getMessage(), created.getMessage());
+
+            IllegalArgumentException found = assertThrows(IllegalArgumentException.class, () -> InstanceManager.findMatchingConstructor(Overloaded.class, new Object[] {1.5}));
+            assertTrue(found.getStackTrace().length > 0);
+        }
+
+        assertFalse(manager.existsInstance("key", 0));
+    }
+
+    @Test
+    void constructorFailureIsWrappedOnce()
+    {
+        InstanceManager<String, Overloaded> manager = new InstanceManager<>(Overloaded.class);
+
+        RuntimeException failure = assertThrows(RuntimeException.class, () -> manager.getInstance("key", 0, new Object[] {"fail", 0, false}));
+        assertInstanceOf(InvocationTargetException.class, failure.getCause());
+        assertInstanceOf(IllegalStateException.class, failure.getCause().getCause());
+    }
+
+    static final class Overloaded
+    {
+
+        private final String description;
+
+        Overloaded()
+        {
+            description = "none";
+        }
+
+        Overloaded(String first)
+        {
+            description = first;
+        }
+
+        Overloaded(String first, int second)
+        {
+            description = first + second;
+        }
+
+        Overloaded(String first, int second, boolean third)
+        {
+            if(!third)
+                throw new IllegalStateException(first);
+
+            description = first + second + third;
+        }
+
+        Overloaded(String key, Integer instanceId)
+        {
+            description = key + instanceId;
+        }
+
+    }
+
+}
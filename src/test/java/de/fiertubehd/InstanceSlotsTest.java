@@ -0,0 +1,108 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceSlotsTest
+{
+
+    @Test
+    void denseAndSparseIdsAreStoredAndRemoved()
+    {
+        InstanceSlots<Object> slots = new InstanceSlots<>();
+
+        // Small ids land in the dense array, large ones in the sparse map.
+        int[] instanceIds = {0, 1, 7, 8, 100, 4095, 4096, 1 << 20, Integer.MAX_VALUE};
+        for(int instanceId : instanceIds)
+            assertEquals("value" + instanceId, slots.computeIfAbsent(instanceId, id -> "value" + id));
+
+        assertEquals(instanceIds.length, slots.size());
+        for(int instanceId : instanceIds)
+        {
+            assertEquals("value" + instanceId, slots.get(instanceId));
+            assertEquals("value" + instanceId, slots.computeIfAbsent(instanceId, id -> "other"));
+        }
+
+        assertNull(slots.get(2));
+        assertNull(slots.get(5000));
+
+        // Conditional removals compare by identity, like the stores built on top of the slots.
+        assertFalse(slots.remove(8, new String("value8")));
+        assertTrue(slots.remove(8, slots.get(8)));
+        assertEquals("value4096", slots.remove(4096));
+        assertNull(slots.remove(4096));
+
+        assertEquals(instanceIds.length - 2, slots.size());
+        assertNull(slots.get(8));
+        assertNull(slots.get(4096));
+    }
+
+    @Test
+    void replaceOnlySwapsTheExpectedValue()
+    {
+        InstanceSlots<Object> slots = new InstanceSlots<>();
+        slots.computeIfAbsent(3, id -> "first");
+        slots.computeIfAbsent(1 << 16, id -> "first");
+
+        assertFalse(slots.replace(3, "other", "second"));
+        assertTrue(slots.replace(3, "first", "second"));
+        assertTrue(slots.replace(1 << 16, "first", "second"));
+        assertFalse(slots.replace(4, "first", "second"));
+
+        assertEquals("second", slots.get(3));
+        assertEquals("second", slots.get(1 << 16));
+        assertEquals(2, slots.size());
+    }
+
+    @Test
+    void drainLeavesPendingCreations()
+    {
+        InstanceSlots<Object> slots = new InstanceSlots<>();
+        PendingInstance<Object> pending = new PendingInstance<>();
+        PendingInstance<Object> sparsePending = new PendingInstance<>();
+
+        for(int instanceId = 0; instanceId < 20; instanceId++)
+            slots.computeIfAbsent(instanceId, id -> "value" + id);
+
+        slots.computeIfAbsent(20, id -> pending);
+        slots.computeIfAbsent(1 << 20, id -> "sparse");
+        slots.computeIfAbsent((1 << 20) + 1, id -> sparsePending);
+
+        RemovedInstances<Object> removed = new RemovedInstances<>();
+        slots.drainTo(removed);
+
+        Set<Integer> removedIds = new HashSet<>();
+        for(int i = 0; i < removed.size(); i++)
+        {
+            assertFalse(removed.value(i) instanceof PendingInstance<?>);
+            removedIds.add(removed.instanceId(i));
+        }
+
+        assertEquals(21, removed.size());
+        assertTrue(removedIds.contains(1 << 20));
+
+        assertEquals(2, slots.size());
+        assertSame(pending, slots.get(20));
+        assertSame(sparsePending, slots.get((1 << 20) + 1));
+    }
+
+    @Test
+    void retiredSlotsRejectCreations()
+    {
+        InstanceSlots<Object> slots = new InstanceSlots<>();
+        slots.retire();
+
+        assertTrue(slots.isRetired());
+        assertNull(slots.computeIfAbsent(0, id -> "value"));
+        assertTrue(slots.isEmpty());
+    }
+
+}
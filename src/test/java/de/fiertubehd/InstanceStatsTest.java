@@ -0,0 +1,175 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceStatsTest
+{
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sizeCountsInstalledInstancesUnderContention() throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class).recordStats().build();
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int thread = 0; thread < 8; thread++)
+            {
+                futures.add(threads.submit(() ->
+                {
+                    start.await();
+                    for(int instanceId = 0; instanceId < 200; instanceId++)
+                        manager.getInstance("key", instanceId, new Object[] {"name"});
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for(Future<?> future : futures)
+                future.get(30, TimeUnit.SECONDS);
+
+        }finally
+        {
+            threads.shutdownNow();
+        }
+
+        assertEquals(200, manager.stream().count());
+        assertEquals(200, manager.stats().size());
+
+        assertEquals(200, manager.unregisterAll("key"));
+        assertEquals(0, manager.stats().size());
+    }
+
+    @Test
+    void sizeCountsRestoredInstances()
+    {
+        Path snapshot = directory.resolve("snapshot");
+
+        InstanceManager<String, Named> source = new InstanceManager<>(Named.class);
+        for(int instanceId = 0; instanceId < 10; instanceId++)
+            source.getInstance("key", instanceId, new Object[] {"name" + instanceId});
+
+        source.snapshot(snapshot, TestCodecs.STRING, TestCodecs.NAMED);
+
+        InstanceManager<String, Named> restored = InstanceManager.<String, Named>builder(Named.class).recordStats().build();
+        assertEquals(10, restored.restore(snapshot, TestCodecs.STRING, TestCodecs.NAMED));
+        assertEquals(10, restored.stats().size());
+
+        InstanceManager<String, Named> rebuilt = InstanceManager.<String, Named>builder(Named.class)
+                .recordStats()
+                .restoreSnapshot(snapshot, TestCodecs.STRING, TestCodecs.NAMED)
+                .build();
+
+        assertEquals(10, rebuilt.stats().size());
+    }
+
+    @Test
+    void sizeFollowsEviction()
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .recordStats()
+                .maximumSize(50)
+                .cleanupExecutor(Runnable::run)
+                .build();
+
+        for(int instanceId = 0; instanceId < 500; instanceId++)
+            manager.getInstance("key", instanceId, new Object[] {"name"});
+
+        manager.cleanUp();
+
+        assertEquals(manager.stream().count(), manager.stats().size());
+        assertEquals(500 - manager.stats().size(), manager.stats().removalCount());
+    }
+
+    @Test
+    void sizeIsExactUnderRacingRemovals() throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class)
+                .recordStats()
+                .maximumSize(50)
+                .cleanupExecutor(Runnable::run)
+                .build();
+
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int thread = 0; thread < 4; thread++)
+            {
+                futures.add(threads.submit(() ->
+                {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for(int i = 0; i < 20_000; i++)
+                    {
+                        int instanceId = random.nextInt(200);
+                        if(random.nextBoolean())
+                            manager.getInstance("key", instanceId, new Object[] {"name"});
+                        else
+                            manager.unregisterInstance("key", instanceId);
+                    }
+
+                    return null;
+                }));
+            }
+
+            for(Future<?> future : futures)
+                future.get(60, TimeUnit.SECONDS);
+
+        }finally
+        {
+            threads.shutdownNow();
+        }
+
+        manager.cleanUp();
+
+        // The size is reported unclamped, so drifting bookkeeping shows up here as a mismatch.
+        InstanceStats stats = manager.stats();
+        assertTrue(stats.size() >= 0, "size " + stats.size());
+        assertEquals(manager.stream().count(), stats.size());
+        assertEquals(stats.creationSuccessCount() - stats.removalCount(), stats.size());
+    }
+
+    @Test
+    void failedRecoveryUnregistersTheMBean() throws Exception
+    {
+        Path snapshot = directory.resolve("snapshot");
+        Files.write(snapshot, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertThrows(RuntimeException.class, () -> InstanceManager.<String, Named>builder(Named.class)
+                .registerStatsMBean("failedRecovery")
+                .restoreSnapshot(snapshot, TestCodecs.STRING, TestCodecs.NAMED)
+                .build());
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().queryNames(null, null).stream()
+                .anyMatch(name -> name.toString().contains("failedRecovery")));
+
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class).registerStatsMBean("failedRecovery").build();
+        manager.closeAll();
+    }
+
+}
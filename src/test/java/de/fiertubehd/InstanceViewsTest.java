@@ -0,0 +1,122 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceViewsTest
+{
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void keysAreALiveView(StorageMode storageMode)
+    {
+        InstanceManager<String, Named> manager = populated(storageMode);
+
+        Set<String> keys = manager.keys();
+        assertEquals(50, keys.size());
+        assertTrue(keys.contains("key7"));
+        assertFalse(keys.contains("missing"));
+
+        assertEquals(50, keys.parallelStream().count());
+        assertEquals(IntStream.range(0, 50).mapToObj(key -> "key" + key).collect(Collectors.toSet()), new HashSet<>(keys));
+
+        manager.getInstance("added", 0, new Object[] {"added"});
+        manager.unregisterAll("key7");
+
+        assertTrue(keys.contains("added"));
+        assertFalse(keys.contains("key7"));
+        assertEquals(50, keys.size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void instancesOfAKeyAreComplete(StorageMode storageMode)
+    {
+        InstanceManager<String, Named> manager = populated(storageMode);
+
+        Set<Integer> instanceIds = manager.instances("key3").map(RegisteredInstance::instanceId).collect(Collectors.toSet());
+        assertEquals(IntStream.range(0, 40).boxed().collect(Collectors.toSet()), instanceIds);
+        assertTrue(manager.instances("key3").allMatch(registered -> registered.instance().name().equals("key3/" + registered.instanceId())));
+        assertEquals(0, manager.instances("missing").count());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void forEachAndStreamsSeeEveryInstanceOnce(StorageMode storageMode)
+    {
+        InstanceManager<String, Named> manager = populated(storageMode);
+
+        LongAdder visited = new LongAdder();
+        manager.forEach((key, instanceId, instance) -> visited.increment());
+        assertEquals(2000, visited.sum());
+
+        assertEquals(2000, manager.stream().count());
+        assertEquals(2000, manager.parallelStream().count());
+        assertEquals(2000, manager.parallelStream().map(registered -> registered.key() + "/" + registered.instanceId()).distinct().count());
+
+        Spliterator<RegisteredInstance<String, Named>> suffix = manager.stream().spliterator();
+        Spliterator<RegisteredInstance<String, Named>> prefix = suffix.trySplit();
+        assertNotNull(prefix);
+
+        long prefixCount = StreamSupport.stream(prefix, false).count();
+        long suffixCount = StreamSupport.stream(suffix, false).count();
+        assertTrue(prefixCount > 0 && suffixCount > 0);
+        assertEquals(2000, prefixCount + suffixCount);
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void viewsTolerateConcurrentChanges(StorageMode storageMode) throws Exception
+    {
+        InstanceManager<String, Named> manager = populated(storageMode);
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() ->
+        {
+            for(int round = 0; round < 20; round++)
+            {
+                for(int instanceId = 40; instanceId < 100; instanceId++)
+                    manager.getInstance("key" + (instanceId % 50), instanceId, new Object[] {"added"});
+
+                for(int instanceId = 40; instanceId < 100; instanceId++)
+                    manager.unregisterInstance("key" + (instanceId % 50), instanceId);
+            }
+        });
+
+        // Weakly consistent: no failures, and the instances present throughout are always seen.
+        while(!writer.isDone())
+        {
+            assertTrue(manager.parallelStream().count() >= 2000);
+            assertTrue(manager.keys().parallelStream().count() >= 50);
+        }
+
+        writer.get(30, TimeUnit.SECONDS);
+        assertEquals(2000, manager.stream().count());
+    }
+
+    private static InstanceManager<String, Named> populated(StorageMode storageMode)
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class).storageMode(storageMode).build();
+        for(int key = 0; key < 50; key++)
+            for(int instanceId = 0; instanceId < 40; instanceId++)
+                manager.getInstance("key" + key, instanceId, new Object[] {"key" + key + "/" + instanceId});
+
+        return manager;
+    }
+
+}
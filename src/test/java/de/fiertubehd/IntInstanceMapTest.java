@@ -0,0 +1,85 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntInstanceMapTest
+{
+
+    @Test
+    void randomOperationsMatchHashMap()
+    {
+        IntInstanceMap<Object> map = new IntInstanceMap<>();
+        Map<Integer, Object> expected = new HashMap<>();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < 100_000; i++)
+        {
+            int key = random.nextInt(2000) * 31;
+            switch(random.nextInt(4))
+            {
+                case 0 -> assertEquals(expected.remove(key), map.remove(key));
+                case 1 ->
+                {
+                    Object value = expected.get(key);
+                    assertEquals(value != null && expected.remove(key, value), value != null && map.remove(key, value));
+                }
+                default ->
+                {
+                    Object value = "value" + key;
+                    assertEquals(expected.computeIfAbsent(key, k -> value), map.computeIfAbsent(key, k -> value));
+                }
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for(int key = 0; key < 2000 * 31; key++)
+            assertEquals(expected.get(key), map.get(key));
+    }
+
+    @Test
+    void replaceAndConditionalRemoveCheckTheValue()
+    {
+        IntInstanceMap<Object> map = new IntInstanceMap<>();
+        assertNull(map.putIfAbsent(5, "first"));
+        assertEquals("first", map.putIfAbsent(5, "other"));
+
+        assertFalse(map.replace(5, "other", "second"));
+        assertTrue(map.replace(5, "first", "second"));
+        assertFalse(map.replace(6, "first", "second"));
+
+        assertFalse(map.remove(5, "first"));
+        assertTrue(map.remove(5, "second"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void drainLeavesPendingCreations()
+    {
+        IntInstanceMap<Object> map = new IntInstanceMap<>();
+        PendingInstance<Object> pending = new PendingInstance<>();
+
+        for(int key = 0; key < 100; key++)
+            map.computeIfAbsent(key, k -> "value" + k);
+
+        map.computeIfAbsent(100, k -> pending);
+
+        RemovedInstances<Object> removed = new RemovedInstances<>();
+        map.drainTo(removed);
+
+        assertEquals(100, removed.size());
+        assertEquals(1, map.size());
+        assertSame(pending, map.get(100));
+        assertFalse(map.containsKey(0));
+    }
+
+}
@@ -0,0 +1,170 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingInstanceTest
+{
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void unregisterInstanceRemovesPendingCreation(StorageMode storageMode) throws Exception
+    {
+        assertUnregisterRemovesPendingCreation(storageMode, manager -> manager.unregisterInstance("key", 1) ? 1 : 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void unregisterInstancesRemovesPendingCreation(StorageMode storageMode) throws Exception
+    {
+        assertUnregisterRemovesPendingCreation(storageMode, manager -> manager.unregisterInstances("key", 0, 4));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void unregisterAllRemovesPendingCreation(StorageMode storageMode) throws Exception
+    {
+        assertUnregisterRemovesPendingCreation(storageMode, manager -> manager.unregisterAll("key"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void creatingWhileUnregisteringKeepsSizeConsistent(StorageMode storageMode) throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class).storageMode(storageMode).recordStats().build();
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for(int worker = 0; worker < 8; worker++)
+        {
+            workers.add(CompletableFuture.runAsync(() ->
+            {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for(int i = 0; i < 20_000; i++)
+                {
+                    int instanceId = random.nextInt(16);
+                    switch(random.nextInt(4))
+                    {
+                        case 0 -> manager.unregisterInstance("key", instanceId);
+                        case 1 -> manager.unregisterInstances("key", new int[] {instanceId, instanceId + 1});
+                        case 2 ->
+                        {
+                            if(random.nextInt(64) == 0)
+                                manager.unregisterAll("key");
+                        }
+                        default -> manager.getInstanceWith("key", instanceId, Named::new, "value");
+                    }
+                }
+            }));
+        }
+
+        CompletableFuture.allOf(workers.toArray(CompletableFuture<?>[]::new)).get(60, TimeUnit.SECONDS);
+
+        InstanceStats stats = manager.stats();
+        assertEquals(manager.stream().count(), stats.size());
+        assertEquals(stats.creationSuccessCount() - stats.removalCount(), stats.size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void failedCreationReleasesWaiters(StorageMode storageMode) throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class).storageMode(storageMode).build();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Named> failing = CompletableFuture.supplyAsync(() -> manager.getInstanceWith("key", 1, () ->
+        {
+            started.countDown();
+            awaitQuietly(release);
+
+            return sneakyThrow(new Exception("checked"));
+        }));
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Named> waiting = CompletableFuture.supplyAsync(() -> manager.getInstanceWith("key", 1, Named::new, "value"));
+
+        release.countDown();
+
+        assertThrows(Exception.class, () -> failing.get(10, TimeUnit.SECONDS));
+        assertEquals("value", waiting.get(10, TimeUnit.SECONDS).name());
+        assertEquals("value", manager.getInstanceWith("key", 1, Named::new, "other").name());
+    }
+
+    private static void assertUnregisterRemovesPendingCreation(StorageMode storageMode, Function<InstanceManager<String, Named>, Integer> unregister) throws Exception
+    {
+        InstanceManager<String, Named> manager = InstanceManager.<String, Named>builder(Named.class).storageMode(storageMode).build();
+
+        AtomicInteger constructions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Named> creation = CompletableFuture.supplyAsync(() -> manager.getInstanceWith("key", 1, () ->
+        {
+            constructions.incrementAndGet();
+            started.countDown();
+            awaitQuietly(release);
+
+            return new Named("created");
+        }));
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Integer> removal = CompletableFuture.supplyAsync(() -> unregister.apply(manager));
+        assertThrows(TimeoutException.class, () -> removal.get(100, TimeUnit.MILLISECONDS));
+
+        // A caller arriving while the creation is pending joins it instead of constructing a second instance.
+        CompletableFuture<Named> joined = CompletableFuture.supplyAsync(() -> manager.getInstanceWith("key", 1, () ->
+        {
+            constructions.incrementAndGet();
+            return new Named("joined");
+        }));
+
+        assertThrows(TimeoutException.class, () -> joined.get(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, constructions.get());
+
+        release.countDown();
+
+        assertEquals("created", creation.get(10, TimeUnit.SECONDS).name());
+        assertEquals(1, removal.get(10, TimeUnit.SECONDS));
+
+        joined.get(10, TimeUnit.SECONDS);
+        manager.unregisterInstance("key", 1);
+        assertFalse(manager.existsInstance("key", 1));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+
+        }catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, E extends Throwable> T sneakyThrow(Throwable throwable) throws E
+    {
+        throw (E) throwable;
+    }
+
+}
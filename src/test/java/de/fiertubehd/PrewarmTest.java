@@ -0,0 +1,105 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrewarmTest
+{
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void prewarmCreatesMissingInstancesAcrossBatches(StorageMode storageMode)
+    {
+        InstanceManager<String, Warmed> manager = new InstanceManager<>(Warmed.class, storageMode);
+
+        AtomicInteger constructions = new AtomicInteger();
+        Object[] parameters = {constructions, -1};
+
+        Warmed existing = manager.getInstance("first", 70, parameters);
+
+        // 150 ids per key span three batches of 64.
+        AtomicLong lastCompleted = new AtomicLong();
+        AtomicLong progressTotal = new AtomicLong();
+        PrewarmResult<String> result = manager.prewarm(List.of("first", "second"), 0, 150, parameters, (completedCount, totalCount) ->
+        {
+            lastCompleted.accumulateAndGet(completedCount, Math::max);
+            progressTotal.set(totalCount);
+        });
+
+        assertTrue(result.isSuccessful());
+        assertEquals(300, result.requestedCount());
+        assertEquals(299, result.createdCount());
+        assertEquals(1, result.existingCount());
+        assertEquals(300, lastCompleted.get());
+        assertEquals(300, progressTotal.get());
+        assertEquals(300, constructions.get());
+
+        assertSame(existing, manager.getExistingInstance("first", 70));
+        assertEquals(150, manager.instances("first").count());
+        assertEquals(150, manager.instances("second").count());
+
+        PrewarmResult<String> repeated = manager.prewarm(List.of("first", "second"), 0, 150, parameters);
+        assertEquals(0, repeated.createdCount());
+        assertEquals(300, repeated.existingCount());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void failedEntriesAreReportedWithoutStoppingTheRun(StorageMode storageMode)
+    {
+        InstanceManager<String, Warmed> manager = new InstanceManager<>(Warmed.class, storageMode);
+
+        AtomicInteger constructions = new AtomicInteger();
+        Object[] parameters = {constructions, 100};
+
+        PrewarmResult<String> result = manager.prewarm(List.of("key"), 0, 200, parameters);
+
+        assertFalse(result.isSuccessful());
+        assertEquals(200, result.requestedCount());
+        assertEquals(199, result.createdCount());
+        assertEquals(1, result.failedCount());
+
+        PrewarmResult.Failure<String> failure = result.failures().get(0);
+        assertEquals("key", failure.key());
+        assertInstanceOf(InvocationTargetException.class, failure.cause().getCause());
+        assertFalse(manager.existsInstance("key", failure.instanceId()));
+        assertEquals(199, manager.instances("key").count());
+    }
+
+    @Test
+    void prewarmRejectsInvalidBounds()
+    {
+        InstanceManager<String, Warmed> manager = new InstanceManager<>(Warmed.class);
+
+        Object[] parameters = {new AtomicInteger(), -1};
+
+        assertThrows(IllegalArgumentException.class, () -> manager.prewarm(List.of("key"), -1, 10, parameters));
+        assertThrows(IllegalArgumentException.class, () -> manager.prewarm(List.of("key"), 10, 5, parameters));
+        assertEquals(0, manager.prewarm(List.of(), 0, 10, parameters).requestedCount());
+    }
+
+    static final class Warmed
+    {
+
+        Warmed(AtomicInteger constructions, int failAt)
+        {
+            if(constructions.getAndIncrement() == failAt)
+                throw new IllegalStateException("Construction " + failAt + " failed.");
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadBufferTest
+{
+
+    @Test
+    void fullStripeRejectsUntilDrained()
+    {
+        ReadBuffer<Integer> buffer = new ReadBuffer<>();
+
+        int accepted = 0;
+        while(buffer.offer(accepted) == ReadBuffer.SUCCESS)
+            accepted++;
+
+        assertEquals(ReadBuffer.FULL, buffer.offer(-1));
+
+        List<Integer> drained = new ArrayList<>();
+        buffer.drainTo(drained::add);
+
+        assertEquals(IntStream.range(0, accepted).boxed().toList(), drained);
+        assertEquals(ReadBuffer.SUCCESS, buffer.offer(accepted));
+    }
+
+    @Test
+    void acceptedElementsAreDrainedExactlyOnce() throws Exception
+    {
+        ReadBuffer<Long> buffer = new ReadBuffer<>();
+        LongAdder accepted = new LongAdder();
+        Set<Long> drained = new HashSet<>();
+
+        CompletableFuture<?>[] readers = IntStream.range(0, 4)
+                .mapToObj(reader -> CompletableFuture.runAsync(() ->
+                {
+                    for(long i = 0; i < 100_000; i++)
+                    {
+                        if(buffer.offer(((long) reader << 32) | i) == ReadBuffer.SUCCESS)
+                            accepted.increment();
+                    }
+                }))
+                .toArray(CompletableFuture<?>[]::new);
+
+        // A single drainer, as under the eviction lock.
+        CompletableFuture<Void> all = CompletableFuture.allOf(readers);
+        while(!all.isDone())
+            buffer.drainTo(element -> assertTrue(drained.add(element)));
+
+        all.get(30, TimeUnit.SECONDS);
+        buffer.drainTo(element -> assertTrue(drained.add(element)));
+
+        assertEquals(accepted.sum(), drained.size());
+    }
+
+}
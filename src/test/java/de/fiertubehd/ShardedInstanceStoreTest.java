@@ -0,0 +1,88 @@
+package de.fiertubehd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedInstanceStoreTest
+{
+
+    @Test
+    void uncontendedWritesAreNotCountedAsContended()
+    {
+        ShardedInstanceStore<Integer, Object> store = new ShardedInstanceStore<>(4, true);
+        for(int key = 0; key < 100; key++)
+            store.computeIfAbsent(key, 0, id -> "value");
+
+        for(int key = 0; key < 100; key++)
+            store.remove(key, 0, store.get(key, 0));
+
+        List<ShardStats> shardStats = store.shardStats();
+        assertEquals(200, shardStats.stream().mapToLong(ShardStats::writeCount).sum());
+        assertEquals(0, shardStats.stream().mapToLong(ShardStats::contendedWriteCount).sum());
+        assertEquals(0, shardStats.stream().mapToLong(ShardStats::size).sum());
+    }
+
+    @Test
+    void concurrentWritesKeepShardSizes() throws Exception
+    {
+        ShardedInstanceStore<Integer, Object> store = new ShardedInstanceStore<>(4, true);
+
+        CompletableFuture<?>[] writers = IntStream.range(0, 8)
+                .mapToObj(writer -> CompletableFuture.runAsync(() ->
+                {
+                    for(int instanceId = 0; instanceId < 1000; instanceId++)
+                        store.computeIfAbsent(writer, instanceId, id -> "value");
+                }))
+                .toArray(CompletableFuture<?>[]::new);
+
+        CompletableFuture.allOf(writers).get(30, TimeUnit.SECONDS);
+
+        List<ShardStats> shardStats = store.shardStats();
+        assertEquals(8000, shardStats.stream().mapToLong(ShardStats::size).sum());
+        assertEquals(8, shardStats.stream().mapToLong(ShardStats::keyCount).sum());
+        assertTrue(shardStats.stream().allMatch(stats -> stats.contendedWriteCount() <= stats.writeCount()));
+
+        assertEquals(8000, store.spliterator((key, instanceId, value) -> value).estimateSize());
+        assertEquals(8, store.keys().size());
+    }
+
+    @Test
+    void overlappingWritesAreCountedAsContended()
+    {
+        ShardedInstanceStore<Integer, Object> store = new ShardedInstanceStore<>(1, true);
+
+        // The inner write starts while the outer one still owns the shard.
+        store.computeIfAbsent(1, 0, id ->
+        {
+            store.computeIfAbsent(2, 0, inner -> "inner");
+            return "outer";
+        });
+
+        store.computeIfAbsent(3, 0, id -> "after");
+
+        ShardStats shardStats = store.shardStats().get(0);
+        assertEquals(3, shardStats.writeCount());
+        assertEquals(1, shardStats.contendedWriteCount());
+    }
+
+    @Test
+    void writesAreNotProbedWithoutStats()
+    {
+        ShardedInstanceStore<Integer, Object> store = new ShardedInstanceStore<>(2, false);
+        for(int key = 0; key < 100; key++)
+            store.computeIfAbsent(key, 0, id -> "value");
+
+        List<ShardStats> shardStats = store.shardStats();
+        assertEquals(100, shardStats.stream().mapToLong(ShardStats::size).sum());
+        assertEquals(0, shardStats.stream().mapToLong(ShardStats::writeCount).sum());
+        assertEquals(0, shardStats.stream().mapToLong(ShardStats::contendedWriteCount).sum());
+    }
+
+}
@@ -0,0 +1,62 @@
+package de.fiertubehd;
+
+import de.fiertubehd.TestCodecs.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnapshotFileTest
+{
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void partitionSplitsEvenly()
+    {
+        List<Integer> values = IntStream.range(0, 100_000).boxed().toList();
+
+        List<Spliterator<Integer>> parts = SnapshotFile.partition(values.spliterator(), 16);
+
+        assertEquals(16, parts.size());
+        for(Spliterator<Integer> part : parts)
+            assertEquals(6250, part.estimateSize());
+    }
+
+    @Test
+    void partitionKeepsUnsplittableParts()
+    {
+        List<Spliterator<Integer>> parts = SnapshotFile.partition(List.of(1, 2, 3).spliterator(), 16);
+
+        assertEquals(3, parts.size());
+        assertEquals(3, parts.stream().mapToLong(Spliterator::getExactSizeIfKnown).sum());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void snapshotRoundTrip(StorageMode storageMode)
+    {
+        Path snapshot = directory.resolve("snapshot");
+
+        InstanceManager<String, Named> source = InstanceManager.<String, Named>builder(Named.class).storageMode(storageMode).build();
+        for(int key = 0; key < 50; key++)
+            for(int instanceId = 0; instanceId < 1000; instanceId++)
+                source.getInstance("key" + key, instanceId, new Object[] {key + "/" + instanceId});
+
+        assertEquals(50_000, source.snapshot(snapshot, TestCodecs.STRING, TestCodecs.NAMED));
+
+        InstanceManager<String, Named> restored = InstanceManager.<String, Named>builder(Named.class).storageMode(storageMode).build();
+        assertEquals(50_000, restored.restore(snapshot, TestCodecs.STRING, TestCodecs.NAMED));
+
+        source.forEach((key, instanceId, instance) -> assertEquals(instance, restored.getExistingInstance(key, instanceId)));
+    }
+
+}
@@ -0,0 +1,78 @@
+package de.fiertubehd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+final class TestCodecs
+{
+
+    static final Codec<String> STRING = new Codec<>()
+    {
+
+        @Override
+        public void encode(String value, ByteBuffer target)
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            target.putInt(bytes.length).put(bytes);
+        }
+
+        @Override
+        public String decode(ByteBuffer source)
+        {
+            byte[] bytes = new byte[source.getInt()];
+            source.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+    };
+
+    static final Codec<Named> NAMED = new Codec<>()
+    {
+
+        @Override
+        public void encode(Named value, ByteBuffer target)
+        {
+            STRING.encode(value.name(), target);
+        }
+
+        @Override
+        public Named decode(ByteBuffer source)
+        {
+            return new Named(STRING.decode(source));
+        }
+
+    };
+
+    static final Codec<Object[]> PARAMETERS = new Codec<>()
+    {
+
+        @Override
+        public void encode(Object[] value, ByteBuffer target)
+        {
+            target.putInt(value.length);
+            for(Object parameter : value)
+                STRING.encode((String) parameter, target);
+        }
+
+        @Override
+        public Object[] decode(ByteBuffer source)
+        {
+            Object[] parameters = new Object[source.getInt()];
+            for(int i = 0; i < parameters.length; i++)
+                parameters[i] = STRING.decode(source);
+
+            return parameters;
+        }
+
+    };
+
+    private TestCodecs()
+    {
+    }
+
+    record Named(String name)
+    {
+    }
+
+}
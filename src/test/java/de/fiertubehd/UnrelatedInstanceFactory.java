@@ -0,0 +1,28 @@
+package de.fiertubehd;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A registered provider that no lookup in the tests should ever instantiate.
+public final class UnrelatedInstanceFactory implements InstanceFactory<Object>
+{
+
+    static final AtomicInteger INSTANTIATIONS = new AtomicInteger();
+
+    public UnrelatedInstanceFactory()
+    {
+        INSTANTIATIONS.incrementAndGet();
+    }
+
+    @Override
+    public Class<Object> instanceClass()
+    {
+        return Object.class;
+    }
+
+    @Override
+    public Object newInstance(Object[] parameters)
+    {
+        return null;
+    }
+
+}